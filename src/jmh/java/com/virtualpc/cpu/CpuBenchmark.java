@@ -0,0 +1,120 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.Ram;
+import com.virtualpc.programs.DemoProgram;
+import com.virtualpc.programs.SampleBinPrograms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guest instruction throughput over the bundled programs, per instruction.
+ * Halting programs are rebooted in place so every invocation executes the same amount of work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+    private static final int INSTRUCTIONS = 10_000;
+
+    private static Map<String, byte[]> samplePrograms;
+
+    @Param({"demo", "counter", "vram-fill", "pulse"})
+    public String program;
+
+    @Param({"INTERPRETER", "JIT"})
+    public CpuBackend backend;
+
+    private Cpu cpu;
+
+    @Setup
+    public void setUp() throws IOException {
+        Ram ram = new Ram(0x10000);
+        ram.writeBlock(0, load(program));
+        cpu = new Cpu(ram, 0, backend);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public int step() {
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            if (cpu.isHalted()) {
+                cpu.reboot(0);
+            }
+            cpu.step();
+        }
+        return cpu.getRegisterA();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public int run() {
+        int executed = 0;
+        while (executed < INSTRUCTIONS) {
+            if (cpu.isHalted()) {
+                cpu.reboot(0);
+            }
+            executed += cpu.run(INSTRUCTIONS - executed);
+        }
+        return cpu.getRegisterA();
+    }
+
+    private static synchronized byte[] load(String name) throws IOException {
+        if (name.equals("demo")) {
+            return DemoProgram.build();
+        }
+        if (samplePrograms == null) {
+            samplePrograms = generateSamplePrograms();
+        }
+        byte[] image = samplePrograms.get(name + ".bin");
+        if (image == null) {
+            throw new IllegalArgumentException("No sample program named " + name);
+        }
+        return image;
+    }
+
+    /**
+     * The sample programs are only written to disk, so they are generated once per JVM into a scratch
+     * directory that is read back and removed straight away.
+     */
+    private static Map<String, byte[]> generateSamplePrograms() throws IOException {
+        Path directory = Files.createTempDirectory("vpc-bench-bin");
+        Map<String, byte[]> programs = new HashMap<>();
+        try {
+            SampleBinPrograms.ensureDefaultPrograms(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    programs.put(file.getFileName().toString(), Files.readAllBytes(file));
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+        return programs;
+    }
+}
@@ -0,0 +1,114 @@
+package com.virtualpc.memory;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RamBenchmark {
+    private static final int SIZE = 0x10000;
+
+    private Ram ram;
+    private byte[] block;
+    private byte[] vramImage;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        ram = new Ram(SIZE);
+        block = new byte[Ram.PAGE_SIZE];
+        vramImage = new byte[SIZE / 2];
+        for (int i = 0; i < vramImage.length; i++) {
+            vramImage[i] = (byte) i;
+        }
+        ram.writeBlock(0, vramImage);
+    }
+
+    @Benchmark
+    public int readByteSweep() {
+        int sum = 0;
+        for (int address = 0; address < SIZE; address++) {
+            sum += ram.readByte(address);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int readByteScattered() {
+        cursor = (cursor + 0x9E37) & (SIZE - 1);
+        return ram.readByte(cursor);
+    }
+
+    @Benchmark
+    public void writeBlockPage() {
+        cursor = (cursor + Ram.PAGE_SIZE) & (SIZE - 1);
+        ram.writeBlock(cursor, block);
+    }
+
+    @Benchmark
+    public void writeBlockVram() {
+        ram.writeBlock(SIZE / 2, vramImage);
+    }
+
+    /**
+     * Baseline for the fork benchmarks: what cloning a machine's memory costs without copy-on-write.
+     */
+    @Benchmark
+    public byte[] fullCopy(ForkMemory memory) {
+        byte[] copy = new byte[SIZE];
+        ram.readBlock(0, copy);
+        memory.record(SIZE);
+        return copy;
+    }
+
+    /**
+     * Fork plus one write to every page, i.e. the full copy-on-write cost of diverging a child.
+     */
+    @Benchmark
+    public Ram forkAndTouchAllPages(ForkMemory memory) {
+        Ram child = ram.fork();
+        for (int address = 0; address < SIZE; address += Ram.PAGE_SIZE) {
+            child.writeByte(address, 1);
+        }
+        memory.record(child.privatePageCount() * Ram.PAGE_SIZE);
+        return child;
+    }
+
+    @Benchmark
+    public Ram forkOnly(ForkMemory memory) {
+        Ram child = ram.fork();
+        memory.record(child.privatePageCount() * Ram.PAGE_SIZE);
+        return child;
+    }
+
+    /**
+     * Page bytes each copy owns outright; {@code privateBytes / copies} is the memory per fork.
+     * Page tables and other fixed overhead show up under {@code -prof gc}.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ForkMemory {
+        public long copies;
+        public long privateBytes;
+
+        void record(int bytes) {
+            copies++;
+            privateBytes += bytes;
+        }
+    }
+}
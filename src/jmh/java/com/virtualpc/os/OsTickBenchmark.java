@@ -0,0 +1,74 @@
+package com.virtualpc.os;
+
+import com.virtualpc.cpu.Cpu;
+import com.virtualpc.input.InputBatch;
+import com.virtualpc.input.InputRing;
+import com.virtualpc.memory.Ram;
+import com.virtualpc.os.fs.VirtualFileSystem;
+import com.virtualpc.programs.DemoProgram;
+import com.virtualpc.video.FrameBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full OS tick (input handling, UI redraw and present) without any guest execution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OsTickBenchmark {
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+
+    @Param({"LEGACY", "DESKTOP"})
+    public String mode;
+
+    private VirtualOperatingSystem operatingSystem;
+    private Cpu cpu;
+    private InputBatch input;
+
+    @Setup
+    public void setUp() throws IOException {
+        Ram ram = new Ram(0x10000);
+        byte[] rom = DemoProgram.build();
+        ram.writeBlock(0, rom);
+        cpu = new Cpu(ram, 0);
+        InputRing ring = new InputRing();
+        input = new InputBatch(ring.capacity());
+
+        Path root = Files.createTempDirectory("vpc-bench-os");
+        operatingSystem = new VirtualOperatingSystem(new FrameBuffer(ram, 0x8000, WIDTH, HEIGHT), ram, 1 << 20, 0,
+                new VirtualFileSystem(root.resolve("vfs")), root.resolve("bin"));
+        operatingSystem.setRomImage(rom);
+        if (mode.equals("DESKTOP")) {
+            ring.postMove(WIDTH / 2, HEIGHT / 2);
+            ring.postKey(InputRing.MOUSE_PRESS, 0);
+            ring.postKey(InputRing.MOUSE_RELEASE, 0);
+        }
+        ring.drain(input);
+        operatingSystem.tick(cpu, input);
+        ring.drain(input);
+    }
+
+    @Benchmark
+    public void tick() {
+        operatingSystem.tick(cpu, input);
+    }
+}
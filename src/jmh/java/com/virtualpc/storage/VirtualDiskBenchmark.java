@@ -0,0 +1,73 @@
+package com.virtualpc.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VirtualDiskBenchmark {
+    private static final int SIZE = 1_048_576;
+    private static final int CHUNK_SECTORS = 64;
+
+    private Path image;
+    private VirtualDisk disk;
+    private ByteBuffer chunk;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Files.createTempFile("vdisk-bench", ".bin");
+        disk = new VirtualDisk(image, SIZE, SIZE / VirtualDisk.PAGE_SIZE);
+        chunk = ByteBuffer.allocate(CHUNK_SECTORS * BlockDevice.SECTOR_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        disk.close();
+        Files.deleteIfExists(image);
+    }
+
+    @Benchmark
+    public int readByteSweep() throws IOException {
+        int sum = 0;
+        for (int offset = 0; offset < SIZE; offset++) {
+            sum += disk.readByte(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void readSectorsSweep() throws IOException {
+        for (long sector = 0; sector < disk.sectorCount(); sector += CHUNK_SECTORS) {
+            chunk.clear();
+            disk.read(sector, chunk);
+        }
+    }
+
+    @Benchmark
+    public void writeSectorsAndForce() throws IOException {
+        for (long sector = 0; sector < disk.sectorCount(); sector += CHUNK_SECTORS) {
+            chunk.clear();
+            disk.write(sector, chunk);
+        }
+        disk.force();
+    }
+}
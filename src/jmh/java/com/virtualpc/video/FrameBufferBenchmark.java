@@ -0,0 +1,52 @@
+package com.virtualpc.video;
+
+import com.virtualpc.memory.Ram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBufferBenchmark {
+    private static final String LINE = "CMD runbin counter.bin OK 0123456789";
+
+    private FrameBuffer frameBuffer;
+
+    @Setup
+    public void setUp() {
+        frameBuffer = new FrameBuffer(new Ram(0x10000), 0x8000, 256, 128);
+    }
+
+    @Benchmark
+    public void drawTextLine() {
+        frameBuffer.drawText(2, 60, LINE, 5);
+    }
+
+    @Benchmark
+    public void fillRectFullScreen() {
+        frameBuffer.fillRect(0, 0, 256, 128, 1);
+    }
+
+    @Benchmark
+    public void fillRectWindow() {
+        frameBuffer.fillRect(8, 16, 120, 90, 3);
+    }
+
+    @Benchmark
+    public void present() {
+        frameBuffer.present();
+    }
+}
@@ -0,0 +1,70 @@
+package com.virtualpc.video;
+
+import com.virtualpc.memory.Ram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame conversion with unchanged, partly changed (one scanline) and fully changed VRAM.
+ * The VRAM update that precedes each render is part of the measured work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoBenchmark {
+    private static final int VRAM_START = 0x8000;
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+
+    @Param({"UNCHANGED", "PARTIAL", "FULL"})
+    public String change;
+
+    private Ram ram;
+    private VideoDevice videoDevice;
+    private byte[][] scanlines;
+    private byte[][] screens;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        ram = new Ram(0x10000);
+        videoDevice = new VideoDevice(ram, VRAM_START, WIDTH, HEIGHT);
+        scanlines = new byte[][]{new byte[WIDTH], new byte[WIDTH]};
+        screens = new byte[][]{new byte[WIDTH * HEIGHT], new byte[WIDTH * HEIGHT]};
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            screens[0][i] = (byte) i;
+            screens[1][i] = (byte) (i + 1);
+        }
+        for (int x = 0; x < WIDTH; x++) {
+            scanlines[0][x] = (byte) x;
+            scanlines[1][x] = (byte) (x + 1);
+        }
+        videoDevice.renderFrame();
+    }
+
+    @Benchmark
+    public boolean renderFrame() {
+        frame ^= 1;
+        switch (change) {
+            case "PARTIAL" -> ram.writeBlock(VRAM_START + (HEIGHT / 2) * WIDTH, scanlines[frame]);
+            case "FULL" -> ram.writeBlock(VRAM_START, screens[frame]);
+            default -> {
+            }
+        }
+        return videoDevice.renderFrame();
+    }
+}
@@ -1,37 +1,163 @@
 package com.virtualpc;
 
 import com.virtualpc.config.VmConfig;
+import com.virtualpc.core.MachineRuntime;
 import com.virtualpc.core.VirtualMachine;
+import com.virtualpc.cpu.CpuBackend;
+import com.virtualpc.cpu.ExecutionProfiler;
+import com.virtualpc.fleet.FleetHost;
+import com.virtualpc.fleet.FleetStats;
 import com.virtualpc.programs.DemoProgram;
 import com.virtualpc.programs.SampleBinPrograms;
+import com.virtualpc.replay.TraceRecorder;
+import com.virtualpc.replay.TraceReplayer;
+import com.virtualpc.util.ByteUtil;
 
+import java.awt.GraphicsEnvironment;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class Main {
+    private static final int HEADLESS_FRAMES = 600;
+    private static final int TRACE_CHECKPOINT_INTERVAL = 600;
+    private static final String OVERLAY_DELTA_PATH = "data/virtual-disk.ovl";
 
     private Main() {
     }
 
     public static void main(String[] args) throws Exception {
-        VmConfig config = VmConfig.defaultConfig();
-        SampleBinPrograms.ensureDefaultPrograms(Path.of("data", "bin-programs"));
-        VirtualMachine vm = new VirtualMachine(config);
+        List<String> positional = new ArrayList<>();
+        boolean headless = GraphicsEnvironment.isHeadless();
+        int fleetSize = 0;
+        Path recordPath = null;
+        Path replayPath = null;
+        long replayFrom = 0;
+        Path profilePath = null;
+        boolean indexedDisplay = false;
+        String baseDisk = null;
+        boolean diskFileSystem = false;
+        CpuBackend cpuBackend = CpuBackend.INTERPRETER;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--headless")) {
+                headless = true;
+            } else if (args[i].equals("--jit")) {
+                cpuBackend = CpuBackend.JIT;
+            } else if (args[i].equals("--fleet") && i + 1 < args.length) {
+                fleetSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--record") && i + 1 < args.length) {
+                recordPath = Path.of(args[++i]);
+            } else if (args[i].equals("--replay") && i + 1 < args.length) {
+                replayPath = Path.of(args[++i]);
+            } else if (args[i].equals("--from") && i + 1 < args.length) {
+                replayFrom = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--profile") && i + 1 < args.length) {
+                profilePath = Path.of(args[++i]);
+            } else if (args[i].equals("--indexed-display")) {
+                indexedDisplay = true;
+            } else if (args[i].equals("--disk-fs")) {
+                diskFileSystem = true;
+            } else if (args[i].equals("--base-disk") && i + 1 < args.length) {
+                baseDisk = args[++i];
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        VmConfig config = VmConfig.defaultConfig()
+                .withCpuBackend(cpuBackend)
+                .withIndexedDisplay(indexedDisplay)
+                .withDiskFileSystem(diskFileSystem);
+        if (baseDisk != null) {
+            config = config.withBaseDisk(baseDisk, OVERLAY_DELTA_PATH);
+        }
+        SampleBinPrograms.ensureDefaultPrograms(Path.of(config.binDirectoryPath()));
+
+        if (replayPath != null) {
+            runReplay(config, replayPath, replayFrom);
+            return;
+        }
+
+        if (fleetSize > 0) {
+            byte[] program = positional.isEmpty() ? DemoProgram.build() : Files.readAllBytes(Path.of(positional.get(0)));
+            runFleet(config, fleetSize, program);
+            return;
+        }
+
+        MachineRuntime runtime = new MachineRuntime(config);
 
         byte[] romImage;
 
-        if (args.length > 0) {
-            Path romPath = Path.of(args[0]);
+        if (!positional.isEmpty()) {
+            Path romPath = Path.of(positional.get(0));
             romImage = Files.readAllBytes(romPath);
-            vm.getRam().writeBlock(config.romLoadAddress(), romImage);
+            runtime.getRam().writeBlock(config.romLoadAddress(), romImage);
             System.out.println("ROM loaded from: " + romPath.toAbsolutePath());
         } else {
             romImage = DemoProgram.build();
-            vm.getRam().writeBlock(config.romLoadAddress(), romImage);
+            runtime.getRam().writeBlock(config.romLoadAddress(), romImage);
             System.out.println("No ROM provided. Demo program loaded into RAM.");
         }
 
-        vm.setRomImage(romImage);
-        vm.start();
+        runtime.setRomImage(romImage);
+        if (recordPath != null) {
+            TraceRecorder recorder = new TraceRecorder(recordPath, TRACE_CHECKPOINT_INTERVAL);
+            recorder.attach(runtime);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (Exception ignored) {
+                }
+            }, "trace-close"));
+            System.out.println("Recording trace to: " + recordPath.toAbsolutePath());
+        }
+        if (headless) {
+            runHeadless(runtime, profilePath);
+        } else {
+            new VirtualMachine(config, runtime).start();
+        }
+    }
+
+    private static void runFleet(VmConfig template, int size, byte[] program) throws Exception {
+        try (FleetHost fleet = new FleetHost(Path.of("data", "fleet"), Runtime.getRuntime().availableProcessors(), false)) {
+            fleet.launch(template, size, program);
+            FleetStats stats = fleet.runRounds(HEADLESS_FRAMES);
+            System.out.printf("Fleet run: %d machines (%d halted), %d rounds, %d instructions"
+                            + " (%d more fast-forwarded), %.1f MIPS%n",
+                    stats.machineCount(), stats.haltedCount(), stats.rounds(), stats.guestInstructions(),
+                    stats.fastForwardedInstructions(), stats.instructionsPerSecond() / 1_000_000.0);
+        }
+    }
+
+    private static void runReplay(VmConfig config, Path tracePath, long fromFrame) throws Exception {
+        TraceReplayer.ReplayResult result = new TraceReplayer(tracePath).replay(config, fromFrame, Long.MAX_VALUE);
+        try (MachineRuntime runtime = result.runtime()) {
+            System.out.printf("Replay: %d frames from checkpoint %d in %.1f ms, %d/%d checkpoints diverged, PC=%s A=%s%n",
+                    result.framesReplayed(), result.startCheckpointFrame(), result.elapsedNanos() / 1_000_000.0,
+                    result.divergedCheckpoints(), result.checkpointsVerified(),
+                    ByteUtil.hex16(runtime.getCpu().getProgramCounter()), ByteUtil.hex8(runtime.getCpu().getRegisterA()));
+        }
+    }
+
+    private static void runHeadless(MachineRuntime runtime, Path profilePath) throws Exception {
+        ExecutionProfiler profiler = profilePath == null ? null : new ExecutionProfiler();
+        runtime.getCpu().setProfiler(profiler);
+        try (runtime) {
+            for (int frame = 0; frame < HEADLESS_FRAMES && !runtime.getCpu().isHalted(); frame++) {
+                runtime.runFrame();
+            }
+            System.out.println("Headless run: " + runtime.getFrameCount() + " frames, "
+                    + runtime.getExecutedCycles() + " cycles, PC=" + ByteUtil.hex16(runtime.getCpu().getProgramCounter())
+                    + " A=" + ByteUtil.hex8(runtime.getCpu().getRegisterA())
+                    + (runtime.getCpu().isHalted() ? " HALTED" : ""));
+            if (profiler != null) {
+                try (Writer out = Files.newBufferedWriter(profilePath)) {
+                    profiler.exportCsv(out);
+                }
+                System.out.println("Profile written to: " + profilePath.toAbsolutePath());
+            }
+        }
     }
 }
@@ -1,5 +1,9 @@
 package com.virtualpc.config;
 
+import com.virtualpc.cpu.CpuBackend;
+
+import java.nio.file.Path;
+
 public record VmConfig(
         int ramSizeBytes,
         int romLoadAddress,
@@ -9,7 +13,14 @@ public record VmConfig(
         int pixelScale,
         int cyclesPerFrame,
         String virtualDiskPath,
-        int virtualDiskSizeBytes
+        String baseDiskPath,
+        int virtualDiskSizeBytes,
+        int diskCachePages,
+        String vfsRootPath,
+        String binDirectoryPath,
+        CpuBackend cpuBackend,
+        boolean indexedDisplay,
+        boolean diskFileSystem
 ) {
     public static VmConfig defaultConfig() {
         return new VmConfig(
@@ -21,7 +32,125 @@ public record VmConfig(
                 3,
                 3_000,
                 "data/virtual-disk.bin",
-                1_048_576
+                "",
+                1_048_576,
+                64,
+                "data/vfs",
+                "data/bin-programs",
+                CpuBackend.INTERPRETER,
+                false,
+                false
+        );
+    }
+
+    public VmConfig forInstance(Path instanceRoot) {
+        return new VmConfig(
+                ramSizeBytes,
+                romLoadAddress,
+                vramStartAddress,
+                displayWidth,
+                displayHeight,
+                pixelScale,
+                cyclesPerFrame,
+                instanceRoot.resolve(baseDiskPath.isEmpty() ? "virtual-disk.bin" : "virtual-disk.ovl").toString(),
+                baseDiskPath,
+                virtualDiskSizeBytes,
+                diskCachePages,
+                instanceRoot.resolve("vfs").toString(),
+                binDirectoryPath,
+                cpuBackend,
+                indexedDisplay,
+                diskFileSystem
+        );
+    }
+
+    public VmConfig withIndexedDisplay(boolean enabled) {
+        return new VmConfig(
+                ramSizeBytes,
+                romLoadAddress,
+                vramStartAddress,
+                displayWidth,
+                displayHeight,
+                pixelScale,
+                cyclesPerFrame,
+                virtualDiskPath,
+                baseDiskPath,
+                virtualDiskSizeBytes,
+                diskCachePages,
+                vfsRootPath,
+                binDirectoryPath,
+                cpuBackend,
+                enabled,
+                diskFileSystem
+        );
+    }
+
+    /**
+     * Boots from {@code basePath} as a shared read-only image, keeping this machine's writes in the overlay {@code deltaPath}.
+     */
+    public VmConfig withBaseDisk(String basePath, String deltaPath) {
+        return new VmConfig(
+                ramSizeBytes,
+                romLoadAddress,
+                vramStartAddress,
+                displayWidth,
+                displayHeight,
+                pixelScale,
+                cyclesPerFrame,
+                deltaPath,
+                basePath,
+                virtualDiskSizeBytes,
+                diskCachePages,
+                vfsRootPath,
+                binDirectoryPath,
+                cpuBackend,
+                indexedDisplay,
+                diskFileSystem
+        );
+    }
+
+    /**
+     * Keeps the guest file tree inside the virtual disk image instead of host files under {@code vfsRootPath}.
+     */
+    public VmConfig withDiskFileSystem(boolean enabled) {
+        return new VmConfig(
+                ramSizeBytes,
+                romLoadAddress,
+                vramStartAddress,
+                displayWidth,
+                displayHeight,
+                pixelScale,
+                cyclesPerFrame,
+                virtualDiskPath,
+                baseDiskPath,
+                virtualDiskSizeBytes,
+                diskCachePages,
+                vfsRootPath,
+                binDirectoryPath,
+                cpuBackend,
+                indexedDisplay,
+                enabled
+        );
+    }
+
+    public VmConfig withCpuBackend(CpuBackend backend) {
+        return new VmConfig(
+                ramSizeBytes,
+                romLoadAddress,
+                vramStartAddress,
+                displayWidth,
+                displayHeight,
+                pixelScale,
+                cyclesPerFrame,
+                virtualDiskPath,
+                baseDiskPath,
+                virtualDiskSizeBytes,
+                diskCachePages,
+                vfsRootPath,
+                binDirectoryPath,
+                backend,
+                indexedDisplay,
+                diskFileSystem
         );
     }
 }
@@ -0,0 +1,12 @@
+package com.virtualpc.core;
+
+import com.virtualpc.input.InputBatch;
+
+public interface FrameObserver {
+    /**
+     * Called at the start of a frame with the input drained for it; the batch is reused next frame.
+     */
+    void onInput(InputBatch input);
+
+    void onFrameCompleted(MachineRuntime runtime);
+}
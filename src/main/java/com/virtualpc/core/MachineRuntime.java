@@ -0,0 +1,294 @@
+package com.virtualpc.core;
+
+import com.virtualpc.config.VmConfig;
+import com.virtualpc.cpu.Cpu;
+import com.virtualpc.cpu.CpuState;
+import com.virtualpc.cpu.InterruptController;
+import com.virtualpc.input.InputBatch;
+import com.virtualpc.input.InputPorts;
+import com.virtualpc.input.InputRing;
+import com.virtualpc.memory.MemoryBus;
+import com.virtualpc.memory.Mmu;
+import com.virtualpc.memory.Ram;
+import com.virtualpc.os.VirtualOperatingSystem;
+import com.virtualpc.os.fs.DiskFileSystem;
+import com.virtualpc.os.fs.GuestFileSystem;
+import com.virtualpc.os.fs.VirtualFileSystem;
+import com.virtualpc.storage.BlockDevice;
+import com.virtualpc.storage.OverlayDisk;
+import com.virtualpc.storage.VirtualDisk;
+import com.virtualpc.video.FrameBuffer;
+import com.virtualpc.video.VideoDevice;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Headless machine: owns the emulated hardware and the virtual OS, with no Swing dependency.
+ * Front ends drive it through {@link #runFrame()} or the cycle-level run methods.
+ */
+public final class MachineRuntime implements AutoCloseable {
+    private final VmConfig config;
+    private final Ram ram;
+    private final Mmu mmu;
+    private final MemoryBus bus;
+    private final Cpu cpu;
+    private final VideoDevice videoDevice;
+    private final BlockDevice virtualDisk;
+    private final VirtualOperatingSystem operatingSystem;
+    private final InputRing inputRing = new InputRing();
+    private final InputBatch inputBatch = new InputBatch(inputRing.capacity());
+    private final InputPorts inputPorts;
+
+    private FrameObserver frameObserver;
+    private long frameCount;
+    private long executedCycles;
+
+    public MachineRuntime(VmConfig config) throws IOException {
+        this(config, new Ram(config.ramSizeBytes()));
+    }
+
+    private MachineRuntime(VmConfig config, Ram ram) throws IOException {
+        this.config = config;
+        this.ram = ram;
+        this.mmu = new Mmu(ram);
+        this.bus = new MemoryBus(mmu);
+        this.inputPorts = new InputPorts(config.displayWidth(), config.displayHeight());
+        bus.map(InputPorts.BASE, MemoryBus.PAGE_SIZE, inputPorts);
+        this.cpu = new Cpu(bus, config.romLoadAddress(), config.cpuBackend());
+        this.videoDevice = new VideoDevice(ram, config.vramStartAddress(), config.displayWidth(), config.displayHeight(),
+                config.indexedDisplay());
+        this.virtualDisk = config.baseDiskPath().isEmpty()
+                ? new VirtualDisk(Path.of(config.virtualDiskPath()), config.virtualDiskSizeBytes(), config.diskCachePages())
+                : new OverlayDisk(Path.of(config.baseDiskPath()), Path.of(config.virtualDiskPath()), config.diskCachePages(), true);
+
+        FrameBuffer frameBuffer = new FrameBuffer(ram, config.vramStartAddress(), config.displayWidth(), config.displayHeight());
+        GuestFileSystem fileSystem = config.diskFileSystem()
+                ? new DiskFileSystem(virtualDisk)
+                : new VirtualFileSystem(Path.of(config.vfsRootPath()));
+        this.operatingSystem = new VirtualOperatingSystem(frameBuffer, ram, config.virtualDiskSizeBytes(), config.romLoadAddress(),
+                fileSystem, Path.of(config.binDirectoryPath()));
+    }
+
+    /**
+     * Creates a machine that shares this one's RAM pages copy-on-write and resumes from the same CPU state.
+     * The child opens the disk image and VFS named by {@code childConfig}; call while this machine is paused.
+     * Both machines cache disk blocks and file system metadata, so the child's disk image (or overlay delta)
+     * must be a different file from every image this machine has open.
+     */
+    public MachineRuntime fork(VmConfig childConfig) throws IOException {
+        if (sharesDisk(childConfig)) {
+            throw new IllegalArgumentException("Forked machine needs its own disk image, not " + childConfig.virtualDiskPath());
+        }
+        virtualDisk.flush();
+        MachineRuntime child = new MachineRuntime(childConfig, ram.fork());
+        child.cpu.loadState(cpu.saveState());
+        ByteArrayOutputStream devices = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(devices);
+        cpu.interrupts().saveState(out);
+        cpu.timer().saveState(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(devices.toByteArray()));
+        child.cpu.interrupts().loadState(in);
+        child.cpu.timer().loadState(in);
+        for (int window = 0; window < Mmu.WINDOW_COUNT; window++) {
+            child.mmu.setBank(window, mmu.getBank(window));
+        }
+        child.operatingSystem.setRomImage(operatingSystem.getRomImage());
+        return child;
+    }
+
+    private boolean sharesDisk(VmConfig childConfig) {
+        Path childDisk = normalized(childConfig.virtualDiskPath());
+        if (childDisk.equals(normalized(config.virtualDiskPath()))) {
+            return true;
+        }
+        if (!config.baseDiskPath().isEmpty() && childDisk.equals(normalized(config.baseDiskPath()))) {
+            return true;
+        }
+        return !childConfig.baseDiskPath().isEmpty()
+                && normalized(childConfig.baseDiskPath()).equals(normalized(config.virtualDiskPath()));
+    }
+
+    private static Path normalized(String path) {
+        return Path.of(path).toAbsolutePath().normalize();
+    }
+
+    public void loadProgram(byte[] image) {
+        ram.writeBlock(config.romLoadAddress(), image);
+        operatingSystem.setRomImage(image);
+        cpu.reboot(config.romLoadAddress());
+    }
+
+    public void setRomImage(byte[] romImage) {
+        operatingSystem.setRomImage(romImage);
+    }
+
+    public int run(int cycles) {
+        int executed = cpu.run(cycles);
+        executedCycles += executed;
+        return executed;
+    }
+
+    public long runUntilHalt(long maxCycles) {
+        long executed = 0;
+        while (executed < maxCycles && !cpu.isHalted()) {
+            executed += run((int) Math.min(maxCycles - executed, config.cyclesPerFrame()));
+        }
+        return executed;
+    }
+
+    public boolean runFrame() {
+        inputRing.drain(inputBatch);
+        if (frameObserver != null && inputBatch.size() > 0) {
+            frameObserver.onInput(inputBatch);
+        }
+        inputPorts.apply(inputBatch);
+        InterruptController interrupts = cpu.interrupts();
+        interrupts.raise(InterruptController.IRQ_VSYNC);
+        if (inputBatch.size() > 0) {
+            interrupts.raise(InterruptController.IRQ_INPUT);
+        }
+        cpu.timer().pollHostClock(System.nanoTime());
+        run(config.cyclesPerFrame());
+        operatingSystem.tick(cpu, inputBatch);
+        frameCount++;
+        if (frameObserver != null) {
+            frameObserver.onFrameCompleted(this);
+        }
+        return videoDevice.renderFrame();
+    }
+
+    public void setFrameObserver(FrameObserver observer) {
+        this.frameObserver = observer;
+    }
+
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        CpuState state = cpu.saveState();
+        out.writeLong(frameCount);
+        out.writeLong(executedCycles);
+        out.writeInt(state.programCounter());
+        out.writeInt(state.registerA());
+        out.writeShort(state.indexX());
+        out.writeShort(state.indexY());
+        out.writeBoolean(state.halted());
+        out.writeBoolean(state.interruptsEnabled());
+        out.writeBoolean(state.waiting());
+        out.writeShort(state.returnAddress());
+        out.writeByte(state.returnA());
+        cpu.interrupts().saveState(out);
+        cpu.timer().saveState(out);
+        for (int window = 0; window < Mmu.WINDOW_COUNT; window++) {
+            out.writeByte(mmu.getBank(window));
+        }
+        byte[] memory = new byte[ram.size()];
+        ram.readBlock(0, memory);
+        out.writeInt(memory.length);
+        out.write(memory);
+        inputPorts.saveState(out);
+        operatingSystem.saveState(out);
+    }
+
+    public void readCheckpoint(DataInput in) throws IOException {
+        frameCount = in.readLong();
+        executedCycles = in.readLong();
+        cpu.loadState(new CpuState(in.readInt(), in.readInt(), in.readUnsignedShort(), in.readUnsignedShort(),
+                in.readBoolean(), in.readBoolean(), in.readBoolean(), in.readUnsignedShort(), in.readUnsignedByte()));
+        cpu.interrupts().loadState(in);
+        cpu.timer().loadState(in);
+        for (int window = 0; window < Mmu.WINDOW_COUNT; window++) {
+            mmu.setBank(window, in.readUnsignedByte());
+        }
+        byte[] memory = new byte[in.readInt()];
+        if (memory.length != ram.size()) {
+            throw new IOException("Checkpoint RAM size " + memory.length + " does not match " + ram.size());
+        }
+        in.readFully(memory);
+        ram.writeBlock(0, memory);
+        inputPorts.loadState(in);
+        operatingSystem.loadState(in);
+    }
+
+    public int peek(int address) {
+        return ram.readByte(address);
+    }
+
+    public void poke(int address, int value) {
+        ram.writeByte(address, value);
+    }
+
+    public BufferedImage captureFrame() {
+        videoDevice.renderFrame();
+        BufferedImage frame = videoDevice.frame();
+        BufferedImage copy = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        try {
+            synchronized (frame) {
+                g.drawImage(frame, 0, 0, null);
+            }
+        } finally {
+            g.dispose();
+        }
+        return copy;
+    }
+
+    public VmConfig getConfig() {
+        return config;
+    }
+
+    public Ram getRam() {
+        return ram;
+    }
+
+    public Mmu getMmu() {
+        return mmu;
+    }
+
+    public MemoryBus getBus() {
+        return bus;
+    }
+
+    public Cpu getCpu() {
+        return cpu;
+    }
+
+    public VideoDevice getVideoDevice() {
+        return videoDevice;
+    }
+
+    public BlockDevice getVirtualDisk() {
+        return virtualDisk;
+    }
+
+    public VirtualOperatingSystem getOperatingSystem() {
+        return operatingSystem;
+    }
+
+    public InputRing getInputRing() {
+        return inputRing;
+    }
+
+    public InputPorts getInputPorts() {
+        return inputPorts;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getExecutedCycles() {
+        return executedCycles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        virtualDisk.close();
+    }
+}
@@ -1,59 +1,53 @@
 package com.virtualpc.core;
 
 import com.virtualpc.config.VmConfig;
-import com.virtualpc.cpu.Cpu;
-import com.virtualpc.input.KeyboardState;
-import com.virtualpc.input.MouseState;
 import com.virtualpc.memory.Ram;
-import com.virtualpc.os.VirtualOperatingSystem;
-import com.virtualpc.storage.VirtualDisk;
 import com.virtualpc.video.DisplayPanel;
-import com.virtualpc.video.FrameBuffer;
-import com.virtualpc.video.VideoDevice;
 
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public final class VirtualMachine {
+    private static final String TITLE = "Virtual PC Simulator";
+
     private final VmConfig config;
-    private final Ram ram;
-    private final Cpu cpu;
-    private final VideoDevice videoDevice;
-    private final VirtualDisk virtualDisk;
-    private final VirtualOperatingSystem operatingSystem;
-    private final MouseState mouseState;
-    private final KeyboardState keyboardState;
+    private final MachineRuntime runtime;
 
     public VirtualMachine(VmConfig config) throws IOException {
-        this.config = config;
-        this.ram = new Ram(config.ramSizeBytes());
-        this.cpu = new Cpu(ram, config.romLoadAddress());
-        this.videoDevice = new VideoDevice(ram, config.vramStartAddress(), config.displayWidth(), config.displayHeight());
-        this.virtualDisk = new VirtualDisk(Path.of(config.virtualDiskPath()), config.virtualDiskSizeBytes());
-        this.mouseState = new MouseState(config.displayWidth() - 1, config.displayHeight() - 1);
-        this.keyboardState = new KeyboardState();
+        this(config, new MachineRuntime(config));
+    }
 
-        FrameBuffer frameBuffer = new FrameBuffer(ram, config.vramStartAddress(), config.displayWidth(), config.displayHeight());
-        this.operatingSystem = new VirtualOperatingSystem(frameBuffer, ram, config.virtualDiskSizeBytes(), config.romLoadAddress());
+    public VirtualMachine(VmConfig config, MachineRuntime runtime) {
+        this.config = config;
+        this.runtime = runtime;
     }
 
     public Ram getRam() {
-        return ram;
+        return runtime.getRam();
+    }
+
+    public MachineRuntime getRuntime() {
+        return runtime;
+    }
+
+    public VirtualMachine fork(VmConfig childConfig) throws IOException {
+        return new VirtualMachine(childConfig, runtime.fork(childConfig));
     }
 
     public void setRomImage(byte[] romImage) {
-        operatingSystem.setRomImage(romImage);
+        runtime.setRomImage(romImage);
     }
 
     public void start() {
         SwingUtilities.invokeLater(() -> {
-            JFrame frame = new JFrame("Virtual PC Simulator");
-            DisplayPanel panel = new DisplayPanel(videoDevice, mouseState, keyboardState,
+            JFrame frame = new JFrame(TITLE);
+            DisplayPanel panel = new DisplayPanel(runtime.getVideoDevice(), runtime.getInputRing(),
                     config.displayWidth(), config.displayHeight(), config.pixelScale());
 
             frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
@@ -64,26 +58,34 @@ public final class VirtualMachine {
             frame.setVisible(true);
             panel.requestFocusInWindow();
 
-            Timer timer = new Timer(16, event -> {
-                for (int i = 0; i < config.cyclesPerFrame() && !cpu.isHalted(); i++) {
-                    cpu.step();
-                }
-
-                operatingSystem.tick(cpu, mouseState, keyboardState);
-                boolean frameChanged = videoDevice.renderFrame();
-                if (frameChanged) {
-                    panel.repaint();
-                }
+            ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "vm-clock");
+                thread.setDaemon(true);
+                return thread;
             });
-            timer.start();
+            clock.scheduleAtFixedRate(() -> {
+                try {
+                    if (runtime.runFrame()) {
+                        panel.repaintDamage(runtime.getVideoDevice().damage());
+                    }
+                } catch (RuntimeException ex) {
+                    clock.shutdown();
+                    String status = "Machine stopped: " + ex.getMessage();
+                    System.err.println(status);
+                    SwingUtilities.invokeLater(() -> frame.setTitle(TITLE + " - " + status));
+                }
+            }, 0, 16, TimeUnit.MILLISECONDS);
 
             frame.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowClosed(WindowEvent e) {
-                    timer.stop();
+                    clock.shutdown();
                     try {
-                        virtualDisk.close();
+                        clock.awaitTermination(1, TimeUnit.SECONDS);
+                        runtime.close();
                     } catch (IOException ignored) {
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
                     }
                 }
             });
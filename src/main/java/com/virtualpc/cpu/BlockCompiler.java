@@ -0,0 +1,350 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MemoryBus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates one guest basic block into a hidden class implementing {@link CompiledBlock}.
+ * Class files are emitted at version 49 so branch targets need no stack map frames.
+ */
+final class BlockCompiler {
+    static final int HALT_FLAG = 1 << 24;
+    static final int MAX_BLOCK_BYTES = 64 * 3;
+
+    private static final int MAX_INSTRUCTIONS = 64;
+
+    private static final String CLASS_NAME = "com/virtualpc/cpu/JitBlock";
+    private static final String MEMORY_CLASS = "com/virtualpc/memory/MemoryBus";
+
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int ISHL = 0x78;
+    private static final int IAND = 0x7E;
+    private static final int IOR = 0x80;
+    private static final int IFNE = 0x9A;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ICONST_0 = 0x03;
+
+    private final MemoryBus bus;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    BlockCompiler(MemoryBus bus) {
+        this.bus = bus;
+    }
+
+    Result compile(int start, int limit) {
+        Emitter code = new Emitter();
+        int pc = start;
+        int instructions = 0;
+        boolean terminated = false;
+        boolean returned = false;
+
+        while (!terminated && !returned && instructions < MAX_INSTRUCTIONS && pc < limit) {
+            int opcode = bus.readByte(pc);
+            int size = sizeOf(opcode);
+            if (size == 0 || pc + size > limit) {
+                break;
+            }
+
+            switch (opcode) {
+                case InstructionSet.NOP -> {
+                }
+                case InstructionSet.LDA_IMM -> {
+                    code.pushInt(bus.readByte(pc + 1));
+                    code.op(ISTORE_2);
+                }
+                case InstructionSet.ADD_IMM, InstructionSet.SUB_IMM -> {
+                    code.op(ILOAD_2);
+                    code.pushInt(bus.readByte(pc + 1));
+                    code.op(opcode == InstructionSet.ADD_IMM ? IADD : ISUB);
+                    code.pushInt(0xFF);
+                    code.op(IAND);
+                    code.op(ISTORE_2);
+                }
+                case InstructionSet.LDA_MEM -> {
+                    int address = word(pc + 1);
+                    if (!bus.isMapped(address)) {
+                        size = 0;
+                        break;
+                    }
+                    code.op(ALOAD_1);
+                    code.pushInt(address);
+                    code.invokeVirtual(code.readByteRef());
+                    code.op(ISTORE_2);
+                }
+                case InstructionSet.STA -> {
+                    int address = word(pc + 1);
+                    if (!bus.isMapped(address) || bus.isDevice(address)) {
+                        size = 0;
+                        break;
+                    }
+                    code.op(ALOAD_1);
+                    code.pushInt(address);
+                    code.op(ILOAD_2);
+                    code.invokeVirtual(code.writeByteRef());
+                    // A later bank switch can map this store onto the block itself, so always return
+                    // to the dispatcher, which re-checks that the next block is still valid.
+                    terminated = true;
+                }
+                case InstructionSet.JMP -> {
+                    code.returnPacked(word(pc + 1), 0);
+                    returned = true;
+                }
+                case InstructionSet.JZ -> {
+                    code.op(ILOAD_2);
+                    int branchAt = code.branch(IFNE);
+                    code.pushInt(word(pc + 1));
+                    code.op(IRETURN);
+                    code.patchBranch(branchAt);
+                    code.returnPacked((pc + size) & 0xFFFF, 0);
+                    returned = true;
+                }
+                case InstructionSet.HALT -> {
+                    code.returnPacked((pc + size) & 0xFFFF, HALT_FLAG);
+                    returned = true;
+                }
+                default -> size = 0;
+            }
+
+            if (size == 0) {
+                break;
+            }
+            pc += size;
+            instructions++;
+        }
+
+        if (instructions == 0) {
+            return null;
+        }
+        if (!returned) {
+            code.returnPacked(pc & 0xFFFF, 0);
+        }
+
+        return new Result(define(code), pc, instructions);
+    }
+
+    private CompiledBlock define(Emitter code) {
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(code.toClassFile(), true);
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable ex) {
+            throw new IllegalStateException("JIT block definition failed", ex);
+        }
+    }
+
+    private int word(int address) {
+        return (bus.readByte(address) << 8) | bus.readByte(address + 1);
+    }
+
+    private static int sizeOf(int opcode) {
+        return switch (opcode) {
+            case InstructionSet.NOP, InstructionSet.HALT -> 1;
+            case InstructionSet.LDA_IMM, InstructionSet.ADD_IMM, InstructionSet.SUB_IMM -> 2;
+            case InstructionSet.STA, InstructionSet.LDA_MEM, InstructionSet.JMP, InstructionSet.JZ -> 3;
+            default -> 0;
+        };
+    }
+
+    record Result(CompiledBlock block, int end, int instructions) {
+    }
+
+    private static final class Emitter {
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private byte[] body = new byte[256];
+        private int bodyLength;
+        private int poolCount = 1;
+
+        void op(int opcode) {
+            if (bodyLength == body.length) {
+                body = Arrays.copyOf(body, body.length * 2);
+            }
+            body[bodyLength++] = (byte) opcode;
+        }
+
+        void opShort(int value) {
+            op(value >> 8);
+            op(value);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                opShort(value);
+            } else {
+                op(LDC_W);
+                opShort(integer(value));
+            }
+        }
+
+        void invokeVirtual(int methodRef) {
+            op(INVOKEVIRTUAL);
+            opShort(methodRef);
+        }
+
+        void returnPacked(int nextPc, int flags) {
+            op(ILOAD_2);
+            pushInt(16);
+            op(ISHL);
+            pushInt(nextPc | flags);
+            op(IOR);
+            op(IRETURN);
+        }
+
+        int branch(int opcode) {
+            int at = bodyLength;
+            op(opcode);
+            opShort(0);
+            return at;
+        }
+
+        void patchBranch(int at) {
+            int offset = bodyLength - at;
+            body[at + 1] = (byte) (offset >> 8);
+            body[at + 2] = (byte) offset;
+        }
+
+        int readByteRef() {
+            return methodRef(MEMORY_CLASS, "readByte", "(I)I");
+        }
+
+        int writeByteRef() {
+            return methodRef(MEMORY_CLASS, "writeByte", "(II)V");
+        }
+
+        byte[] toClassFile() {
+            int thisClass = classRef(CLASS_NAME);
+            int superClass = classRef("java/lang/Object");
+            int iface = classRef("com/virtualpc/cpu/CompiledBlock");
+            int superInit = methodRef("java/lang/Object", "<init>", "()V");
+            int initName = utf8("<init>");
+            int initDesc = utf8("()V");
+            int execName = utf8("execute");
+            int execDesc = utf8("(L" + MEMORY_CLASS + ";I)I");
+            int codeAttr = utf8("Code");
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(poolCount);
+                pool.writeTo(out);
+                out.writeShort(0x0030);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(iface);
+                out.writeShort(0);
+                out.writeShort(2);
+
+                byte[] init = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit, (byte) RETURN};
+                writeMethod(out, initName, initDesc, codeAttr, 1, 1, init);
+                writeMethod(out, execName, execDesc, codeAttr, 4, 3, Arrays.copyOf(body, bodyLength));
+
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int desc, int codeAttr,
+                                        int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private int utf8(String value) {
+            return constant("U" + value, () -> {
+                pool.write(1);
+                byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                writeShort(pool, data.length);
+                pool.write(data, 0, data.length);
+            });
+        }
+
+        private int integer(int value) {
+            return constant("I" + value, () -> {
+                pool.write(3);
+                writeShort(pool, value >>> 16);
+                writeShort(pool, value);
+            });
+        }
+
+        private int classRef(String name) {
+            int nameIndex = utf8(name);
+            return constant("C" + name, () -> {
+                pool.write(7);
+                writeShort(pool, nameIndex);
+            });
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(descriptor);
+            int nameAndType = constant("N" + name + descriptor, () -> {
+                pool.write(12);
+                writeShort(pool, nameIndex);
+                writeShort(pool, descIndex);
+            });
+            return constant("M" + owner + "." + name + descriptor, () -> {
+                pool.write(10);
+                writeShort(pool, ownerIndex);
+                writeShort(pool, nameAndType);
+            });
+        }
+
+        private int constant(String key, Runnable writer) {
+            Integer existing = poolIndex.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            writer.run();
+            int index = poolCount++;
+            poolIndex.put(key, index);
+            return index;
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+}
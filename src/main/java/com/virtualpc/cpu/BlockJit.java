@@ -0,0 +1,134 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MemoryWriteListener;
+import com.virtualpc.memory.MemoryBus;
+
+/**
+ * Runs hot basic blocks as JVM bytecode and interprets everything else with {@link Cpu#step()}.
+ * A block is only entered when the remaining budget covers all of its instructions,
+ * so frame boundaries land on the same instruction as the interpreter. Device stores are never compiled,
+ * so a device write that asks the CPU to yield ends the run at the same point as well. A block ends after
+ * its first RAM store, so a store that invalidates code, even through a mapping set up after compilation,
+ * never leaves a dropped block running.
+ */
+final class BlockJit implements ExecutionEngine, MemoryWriteListener {
+    private static final int HOT_THRESHOLD = 8;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final Block NOT_COMPILABLE = new Block(null, 0, Integer.MAX_VALUE);
+
+    private final MemoryBus bus;
+    private final BlockCompiler compiler;
+    private final int limit;
+    /** Blocks and hit counters by entry PC, in 256-byte pages allocated when code on them first runs. */
+    private final Block[][] blocks;
+    private final int[][] hits;
+
+    BlockJit(MemoryBus bus) {
+        this.bus = bus;
+        this.compiler = new BlockCompiler(bus);
+        this.limit = 0x10000;
+        this.blocks = new Block[limit >>> PAGE_SHIFT][];
+        this.hits = new int[limit >>> PAGE_SHIFT][];
+        bus.addWriteListener(this);
+    }
+
+    @Override
+    public int run(Cpu cpu, int budget) {
+        int pc = cpu.getProgramCounter();
+        int a = cpu.getRegisterA();
+        int executed = 0;
+
+        try {
+            while (executed < budget) {
+                Block block = pc < limit ? lookup(pc) : NOT_COMPILABLE;
+                if (block != null && block.instructions() <= budget - executed) {
+                    int result = block.code().execute(bus, a);
+                    executed += block.instructions();
+                    pc = result & 0xFFFF;
+                    a = (result >>> 16) & 0xFF;
+                    if ((result & BlockCompiler.HALT_FLAG) != 0) {
+                        cpu.halt();
+                        return executed;
+                    }
+                    continue;
+                }
+
+                cpu.restore(pc, a);
+                try {
+                    executed += interpretBlock(cpu, budget - executed);
+                } finally {
+                    pc = cpu.getProgramCounter();
+                    a = cpu.getRegisterA();
+                }
+                if (cpu.isHalted() || cpu.yieldRequested()) {
+                    return executed;
+                }
+            }
+            return executed;
+        } finally {
+            cpu.restore(pc, a);
+        }
+    }
+
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        int start = Math.max(0, address - BlockCompiler.MAX_BLOCK_BYTES + 1);
+        int end = Math.min(limit, address + length);
+        if (start >= end) {
+            return;
+        }
+
+        for (int page = start >>> PAGE_SHIFT; page <= (end - 1) >>> PAGE_SHIFT; page++) {
+            Block[] pageBlocks = blocks[page];
+            if (pageBlocks == null) {
+                continue;
+            }
+            int from = Math.max(start, page << PAGE_SHIFT);
+            int to = Math.min(end, (page + 1) << PAGE_SHIFT);
+            for (int entry = from; entry < to; entry++) {
+                Block block = pageBlocks[entry & PAGE_MASK];
+                if (block != null && block.end() > address) {
+                    pageBlocks[entry & PAGE_MASK] = null;
+                    hits[page][entry & PAGE_MASK] = 0;
+                }
+            }
+        }
+    }
+
+    private Block lookup(int pc) {
+        int page = pc >>> PAGE_SHIFT;
+        Block[] pageBlocks = blocks[page];
+        if (pageBlocks == null) {
+            pageBlocks = new Block[1 << PAGE_SHIFT];
+            blocks[page] = pageBlocks;
+            hits[page] = new int[1 << PAGE_SHIFT];
+        }
+        Block block = pageBlocks[pc & PAGE_MASK];
+        if (block != null || ++hits[page][pc & PAGE_MASK] < HOT_THRESHOLD) {
+            return block;
+        }
+
+        BlockCompiler.Result result = compiler.compile(pc, limit);
+        block = result == null
+                ? new Block(null, Math.min(limit, pc + 3), NOT_COMPILABLE.instructions())
+                : new Block(result.block(), result.end(), result.instructions());
+        pageBlocks[pc & PAGE_MASK] = block;
+        return block;
+    }
+
+    private static int interpretBlock(Cpu cpu, int budget) {
+        int executed = 0;
+        while (executed < budget && !cpu.isHalted() && !cpu.yieldRequested()) {
+            int opcode = cpu.peekOpcode();
+            executed += cpu.step();
+            if (opcode == InstructionSet.JMP || opcode == InstructionSet.JZ) {
+                break;
+            }
+        }
+        return executed;
+    }
+
+    private record Block(CompiledBlock code, int end, int instructions) {
+    }
+}
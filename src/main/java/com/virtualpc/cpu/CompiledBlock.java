@@ -0,0 +1,11 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MemoryBus;
+
+/**
+ * Entry point implemented by JIT-generated hidden classes.
+ * The result packs the next PC in bits 0-15, register A in bits 16-23 and a halt flag in bit 24.
+ */
+interface CompiledBlock {
+    int execute(MemoryBus bus, int registerA);
+}
@@ -1,23 +1,108 @@
 package com.virtualpc.cpu;
 
+import com.virtualpc.memory.MemoryBus;
+import com.virtualpc.memory.Mmu;
 import com.virtualpc.memory.Ram;
 import com.virtualpc.util.ByteUtil;
 
 public final class Cpu {
-    private final Ram ram;
+    private static final int LOOP_CHECK_INTERVAL = 1_024;
+    /** Block instructions cost one cycle plus one per this many bytes moved. */
+    public static final int BLOCK_BYTES_PER_CYCLE = 64;
+
+    private final MemoryBus bus;
+    private final ExecutionEngine engine;
+    private final IdleLoopDetector idleLoops;
+    private final InterruptController interrupts;
+    private final IntervalTimer timer;
+    private ExecutionProfiler profiler;
 
     private int programCounter;
     private int registerA;
+    private int indexX;
+    private int indexY;
     private boolean halted;
+    private boolean interruptsEnabled;
+    private boolean waiting;
+    private int returnAddress;
+    private int returnA;
+    private boolean yieldRequested;
+    private long busyCycles;
+    private long blockSurplusCycles;
+    private long fastForwardedInstructions;
 
     public Cpu(Ram ram, int bootAddress) {
-        this.ram = ram;
+        this(ram, bootAddress, CpuBackend.INTERPRETER);
+    }
+
+    public Cpu(Ram ram, int bootAddress, CpuBackend backend) {
+        this(new MemoryBus(new Mmu(ram)), bootAddress, backend);
+    }
+
+    public Cpu(MemoryBus bus, int bootAddress, CpuBackend backend) {
+        this.bus = bus;
         this.programCounter = bootAddress & 0xFFFF;
+        this.engine = switch (backend) {
+            case INTERPRETER -> new ThreadedInterpreter(bus);
+            case JIT -> new BlockJit(bus);
+        };
+        this.idleLoops = new IdleLoopDetector(bus);
+        this.interrupts = new InterruptController(this::requestYield);
+        this.timer = new IntervalTimer(interrupts, this::requestYield);
+        bus.map(InterruptController.BASE, MemoryBus.PAGE_SIZE, interrupts);
+        bus.map(IntervalTimer.BASE, MemoryBus.PAGE_SIZE, timer);
     }
 
-    public void step() {
+    /**
+     * Runs up to {@code cycles} cycles and returns how many elapsed, including cycles spent in {@code WAIT}.
+     * <p>
+     * Interrupts are taken between slices. A slice ends on a guest-clock timer expiry or, through
+     * {@link #yieldRequested()}, right after an instruction or device write that may make one deliverable,
+     * so every engine takes an interrupt before the same instruction. A waiting CPU skips straight to the
+     * next timer expiry or the end of the budget without executing anything.
+     */
+    public int run(int cycles) {
+        int executed = 0;
+        while (executed < cycles && !halted) {
+            if (interrupts.hasDeliverable()) {
+                waiting = false;
+                if (interruptsEnabled) {
+                    enterInterrupt();
+                }
+            }
+            int slice = Math.min(cycles - executed, timer.cyclesUntilExpiry());
+            int elapsed;
+            if (waiting) {
+                elapsed = slice;
+            } else {
+                yieldRequested = false;
+                elapsed = profiler != null ? runProfiled(slice) : runSlice(slice);
+                busyCycles += elapsed;
+            }
+            timer.advance(elapsed);
+            executed += elapsed;
+        }
+        return executed;
+    }
+
+    /**
+     * Profiling steps every instruction through {@link #step()} so counts are exact;
+     * the fast engines and loop fast-forward are bypassed while a profiler is attached.
+     */
+    public void setProfiler(ExecutionProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public ExecutionProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Executes one instruction and returns the cycles it cost: one, or more for the block instructions.
+     */
+    public int step() {
         if (halted) {
-            return;
+            return 0;
         }
 
         int opcode = fetchByte();
@@ -27,11 +112,11 @@ public final class Cpu {
             case InstructionSet.LDA_IMM -> registerA = fetchByte();
             case InstructionSet.STA -> {
                 int address = fetchWord();
-                ram.writeByte(address, registerA);
+                bus.writeByte(address, registerA);
             }
             case InstructionSet.LDA_MEM -> {
                 int address = fetchWord();
-                registerA = ram.readByte(address);
+                registerA = bus.readByte(address);
             }
             case InstructionSet.ADD_IMM -> registerA = (registerA + fetchByte()) & 0xFF;
             case InstructionSet.SUB_IMM -> registerA = (registerA - fetchByte()) & 0xFF;
@@ -42,10 +127,65 @@ public final class Cpu {
                     programCounter = address;
                 }
             }
+            case InstructionSet.WAIT -> {
+                waiting = true;
+                yieldRequested = true;
+            }
+            case InstructionSet.EI -> {
+                interruptsEnabled = true;
+                yieldRequested = true;
+            }
+            case InstructionSet.DI -> interruptsEnabled = false;
+            case InstructionSet.RTI -> {
+                programCounter = returnAddress;
+                registerA = returnA;
+                interruptsEnabled = true;
+                yieldRequested = true;
+            }
+            case InstructionSet.LDX -> indexX = fetchWord();
+            case InstructionSet.LDY -> indexY = fetchWord();
+            case InstructionSet.FILL -> {
+                int length = fetchWord();
+                bus.fill(indexX, length, registerA);
+                indexX = (indexX + length) & 0xFFFF;
+                return chargeBlock(length);
+            }
+            case InstructionSet.COPY -> {
+                int length = fetchWord();
+                bus.copy(indexX, indexY, length);
+                indexX = (indexX + length) & 0xFFFF;
+                indexY = (indexY + length) & 0xFFFF;
+                return chargeBlock(length);
+            }
+            case InstructionSet.RECT -> {
+                int width = fetchByte();
+                int height = fetchByte();
+                int stride = fetchWord();
+                for (int row = 0; row < height; row++) {
+                    bus.fill(indexX + row * stride, width, registerA);
+                }
+                return chargeBlock(width * height);
+            }
             case InstructionSet.HALT -> halted = true;
             default -> throw new IllegalStateException("Unknown opcode " + ByteUtil.hex8(opcode) +
                     " at PC=" + ByteUtil.hex16((programCounter - 1) & 0xFFFF));
         }
+        return 1;
+    }
+
+    /**
+     * Instructions executed since construction, counting each block instruction once and
+     * excluding cycles spent in {@code WAIT} and loop iterations applied in closed form.
+     */
+    public long getRetiredInstructions() {
+        return busyCycles - blockSurplusCycles - fastForwardedInstructions;
+    }
+
+    /**
+     * Instructions the idle-loop detector applied without executing them.
+     */
+    public long getFastForwardedInstructions() {
+        return fastForwardedInstructions;
     }
 
     public boolean isHalted() {
@@ -60,14 +200,142 @@ public final class Cpu {
         return registerA;
     }
 
+    public int getIndexX() {
+        return indexX;
+    }
+
+    public int getIndexY() {
+        return indexY;
+    }
+
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    public boolean interruptsEnabled() {
+        return interruptsEnabled;
+    }
+
+    public InterruptController interrupts() {
+        return interrupts;
+    }
+
+    public IntervalTimer timer() {
+        return timer;
+    }
+
+    public CpuState saveState() {
+        return new CpuState(programCounter, registerA, indexX, indexY, halted, interruptsEnabled, waiting,
+                returnAddress, returnA);
+    }
+
+    public void loadState(CpuState state) {
+        this.programCounter = state.programCounter() & 0xFFFF;
+        this.registerA = state.registerA() & 0xFF;
+        this.indexX = state.indexX() & 0xFFFF;
+        this.indexY = state.indexY() & 0xFFFF;
+        this.halted = state.halted();
+        this.interruptsEnabled = state.interruptsEnabled();
+        this.waiting = state.waiting();
+        this.returnAddress = state.returnAddress() & 0xFFFF;
+        this.returnA = state.returnA() & 0xFF;
+    }
+
+    public MemoryBus getBus() {
+        return bus;
+    }
+
+    public Mmu getMmu() {
+        return bus.mmu();
+    }
+
     public void reboot(int bootAddress) {
+        bus.reset();
         this.programCounter = bootAddress & 0xFFFF;
         this.registerA = 0;
+        this.indexX = 0;
+        this.indexY = 0;
         this.halted = false;
+        this.interruptsEnabled = false;
+        this.waiting = false;
+        this.returnAddress = 0;
+        this.returnA = 0;
+    }
+
+    /**
+     * Set when the last instruction may have made an interrupt deliverable; engines return to {@link #run(int)}.
+     */
+    boolean yieldRequested() {
+        return yieldRequested;
+    }
+
+    void requestYield() {
+        yieldRequested = true;
+    }
+
+    void restore(int programCounter, int registerA) {
+        this.programCounter = programCounter & 0xFFFF;
+        this.registerA = registerA & 0xFF;
+    }
+
+    int peekOpcode() {
+        return bus.readByte(programCounter);
+    }
+
+    void halt() {
+        this.halted = true;
+    }
+
+    private int runSlice(int cycles) {
+        int executed = 0;
+        while (executed < cycles && !halted && !yieldRequested) {
+            int remaining = cycles - executed;
+            int skipped = idleLoops.fastForward(this, remaining);
+            if (skipped > 0) {
+                executed += skipped;
+                fastForwardedInstructions += skipped;
+            } else {
+                executed += engine.run(this, Math.min(remaining, LOOP_CHECK_INTERVAL));
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * Saves the return state and jumps to the vector of the highest-priority deliverable line.
+     * Handlers start with interrupts disabled; {@code RTI} restores PC and A and re-enables them.
+     */
+    private void enterInterrupt() {
+        int vector = interrupts.acknowledgeNext();
+        returnAddress = programCounter;
+        returnA = registerA;
+        interruptsEnabled = false;
+        programCounter = vector & 0xFFFF;
+    }
+
+    private int runProfiled(int cycles) {
+        int executed = 0;
+        while (executed < cycles && !halted && !yieldRequested) {
+            int pc = programCounter;
+            int opcode = bus.readByte(pc);
+            int cost = step();
+            profiler.record(pc, opcode);
+            if (opcode == InstructionSet.JZ) {
+                profiler.recordBranch(pc, programCounter != ((pc + 3) & 0xFFFF));
+            }
+            executed += cost;
+        }
+        return executed;
+    }
+
+    private int chargeBlock(int bytes) {
+        int surplus = bytes / BLOCK_BYTES_PER_CYCLE;
+        blockSurplusCycles += surplus;
+        return 1 + surplus;
     }
 
     private int fetchByte() {
-        int value = ram.readByte(programCounter);
+        int value = bus.readByte(programCounter);
         programCounter = (programCounter + 1) & 0xFFFF;
         return value;
     }
@@ -0,0 +1,6 @@
+package com.virtualpc.cpu;
+
+public enum CpuBackend {
+    INTERPRETER,
+    JIT
+}
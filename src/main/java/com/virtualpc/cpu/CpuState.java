@@ -0,0 +1,8 @@
+package com.virtualpc.cpu;
+
+public record CpuState(int programCounter, int registerA, int indexX, int indexY, boolean halted,
+                       boolean interruptsEnabled, boolean waiting, int returnAddress, int returnA) {
+    public CpuState(int programCounter, int registerA, boolean halted) {
+        this(programCounter, registerA, 0, 0, halted, false, false, 0, 0);
+    }
+}
@@ -0,0 +1,5 @@
+package com.virtualpc.cpu;
+
+interface ExecutionEngine {
+    int run(Cpu cpu, int budget);
+}
@@ -0,0 +1,98 @@
+package com.virtualpc.cpu;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Per-PC and per-opcode execution counts, plus taken/not-taken counts for each {@code JZ}.
+ * Counters are preallocated primitive arrays, so recording never allocates.
+ */
+public final class ExecutionProfiler {
+    private static final int ADDRESS_SPACE = 0x10000;
+
+    private final long[] pcCounts = new long[ADDRESS_SPACE];
+    private final int[] pcOpcodes = new int[ADDRESS_SPACE];
+    private final long[] opcodeCounts = new long[256];
+    private final long[] branchTaken = new long[ADDRESS_SPACE];
+    private final long[] branchNotTaken = new long[ADDRESS_SPACE];
+    private long totalInstructions;
+
+    void record(int pc, int opcode) {
+        pcCounts[pc]++;
+        pcOpcodes[pc] = opcode;
+        opcodeCounts[opcode]++;
+        totalInstructions++;
+    }
+
+    void recordBranch(int pc, boolean taken) {
+        if (taken) {
+            branchTaken[pc]++;
+        } else {
+            branchNotTaken[pc]++;
+        }
+    }
+
+    public long totalInstructions() {
+        return totalInstructions;
+    }
+
+    public long executions(int pc) {
+        return pcCounts[pc & 0xFFFF];
+    }
+
+    public long opcodeExecutions(int opcode) {
+        return opcodeCounts[opcode & 0xFF];
+    }
+
+    public long branchTaken(int pc) {
+        return branchTaken[pc & 0xFFFF];
+    }
+
+    public long branchNotTaken(int pc) {
+        return branchNotTaken[pc & 0xFFFF];
+    }
+
+    /**
+     * Returns up to {@code limit} executed PCs, hottest first.
+     */
+    public int[] hottest(int limit) {
+        int[] executed = new int[ADDRESS_SPACE];
+        int count = 0;
+        for (int pc = 0; pc < ADDRESS_SPACE; pc++) {
+            if (pcCounts[pc] > 0) {
+                executed[count++] = pc;
+            }
+        }
+        return Arrays.stream(executed, 0, count)
+                .boxed()
+                .sorted((left, right) -> Long.compare(pcCounts[right], pcCounts[left]))
+                .limit(Math.max(0, limit))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    public void reset() {
+        Arrays.fill(pcCounts, 0);
+        Arrays.fill(pcOpcodes, 0);
+        Arrays.fill(opcodeCounts, 0);
+        Arrays.fill(branchTaken, 0);
+        Arrays.fill(branchNotTaken, 0);
+        totalInstructions = 0;
+    }
+
+    /**
+     * Writes one CSV row per executed PC: {@code pc,opcode,executions,jz_taken,jz_not_taken}.
+     */
+    public void exportCsv(Writer out) throws IOException {
+        out.write("pc,opcode,executions,jz_taken,jz_not_taken\n");
+        for (int pc = 0; pc < ADDRESS_SPACE; pc++) {
+            if (pcCounts[pc] == 0) {
+                continue;
+            }
+            out.write(String.format("%04X,%02X,%d,%d,%d\n",
+                    pc, pcOpcodes[pc], pcCounts[pc], branchTaken[pc], branchNotTaken[pc]));
+        }
+        out.flush();
+    }
+}
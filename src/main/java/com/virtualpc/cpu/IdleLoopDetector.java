@@ -0,0 +1,341 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MemoryWriteListener;
+import com.virtualpc.memory.MemoryBus;
+
+import java.util.Arrays;
+
+/**
+ * Recognises short unconditional guest loops and applies many iterations at once.
+ * <p>
+ * Each loop is summarised as one transfer function over register A and the memory cells it touches:
+ * after an iteration every tracked value is either a constant or another tracked value plus an offset.
+ * Composing that function with itself by repeated squaring yields the exact state after any
+ * number of iterations, so a whole frame budget of a busy loop costs a handful of operations.
+ */
+final class IdleLoopDetector implements MemoryWriteListener {
+    private static final int MAX_LOOP_INSTRUCTIONS = 16;
+    private static final int MAX_TRACKED = 1 + MAX_LOOP_INSTRUCTIONS;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int CONSTANT = -1;
+
+    private final MemoryBus bus;
+    private final int limit;
+    /** Summaries by entry PC, in 256-byte pages allocated when the detector first looks at a PC on them. */
+    private final LoopSummary[][] summaries;
+    private final int[][] pageEntries;
+    private final int[] pageEntryCounts;
+
+    IdleLoopDetector(MemoryBus bus) {
+        this.bus = bus;
+        this.limit = 0x10000;
+        int pages = (limit + (1 << PAGE_SHIFT) - 1) >>> PAGE_SHIFT;
+        this.summaries = new LoopSummary[pages][];
+        this.pageEntries = new int[pages][];
+        this.pageEntryCounts = new int[pages];
+        bus.addWriteListener(this);
+    }
+
+    int fastForward(Cpu cpu, int budget) {
+        int pc = cpu.getProgramCounter();
+        if (pc >= limit) {
+            return 0;
+        }
+
+        LoopSummary[] page = summaries[pc >>> PAGE_SHIFT];
+        if (page == null) {
+            page = new LoopSummary[1 << PAGE_SHIFT];
+            summaries[pc >>> PAGE_SHIFT] = page;
+        }
+        LoopSummary summary = page[pc & PAGE_MASK];
+        if (summary == null) {
+            summary = register(pc, analyze(pc));
+            page[pc & PAGE_MASK] = summary;
+        }
+        if (!summary.isLoop() || budget < summary.length() * 2) {
+            return 0;
+        }
+        if (!translationsMatch(summary)) {
+            page[pc & PAGE_MASK] = null;
+            return 0;
+        }
+
+        int iterations = budget / summary.length();
+        apply(cpu, summary, iterations);
+        return iterations * summary.length();
+    }
+
+    /**
+     * Drops only the summaries whose visited instructions overlap the written bytes. Each page keeps the
+     * entry PCs of the summaries that read code from it; entries already dropped are compacted away here.
+     */
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        int start = Math.max(0, address);
+        int end = Math.min(limit, address + length);
+        for (int page = start >>> PAGE_SHIFT; start < end && page <= (end - 1) >>> PAGE_SHIFT; page++) {
+            int count = pageEntryCounts[page];
+            if (count == 0) {
+                continue;
+            }
+            int[] entries = pageEntries[page];
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int entry = entries[i];
+                LoopSummary[] entryPage = summaries[entry >>> PAGE_SHIFT];
+                LoopSummary summary = entryPage[entry & PAGE_MASK];
+                if (summary == null) {
+                    continue;
+                }
+                if (summary.visits(start, end)) {
+                    entryPage[entry & PAGE_MASK] = null;
+                    continue;
+                }
+                entries[kept++] = entry;
+            }
+            pageEntryCounts[page] = kept;
+        }
+    }
+
+    /**
+     * A bank switch that only moves loop data is not reported as a code write, so the summary's
+     * physical cells are checked against the current mapping before every use.
+     */
+    private boolean translationsMatch(LoopSummary summary) {
+        for (int v = 1; v < summary.addresses().length; v++) {
+            int address = summary.addresses()[v];
+            if (bus.translate(address) != summary.physical()[v]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void apply(Cpu cpu, LoopSummary summary, int iterations) {
+        int tracked = summary.source().length;
+        int[] source = Arrays.copyOf(summary.source(), tracked);
+        int[] offset = Arrays.copyOf(summary.offset(), tracked);
+        int[] resultSource = new int[tracked];
+        int[] resultOffset = new int[tracked];
+        for (int v = 0; v < tracked; v++) {
+            resultSource[v] = v;
+        }
+
+        int remaining = iterations;
+        while (remaining > 0) {
+            if ((remaining & 1) != 0) {
+                compose(source, offset, resultSource, resultOffset);
+            }
+            compose(source, offset, source, offset);
+            remaining >>>= 1;
+        }
+
+        int[] initial = new int[tracked];
+        initial[0] = cpu.getRegisterA();
+        for (int v = 1; v < tracked; v++) {
+            initial[v] = bus.readByte(summary.addresses()[v]);
+        }
+
+        for (int v = 1; v < tracked; v++) {
+            if (summary.written()[v]) {
+                bus.writeByte(summary.addresses()[v], valueOf(resultSource[v], resultOffset[v], initial));
+            }
+        }
+        cpu.restore(cpu.getProgramCounter(), valueOf(resultSource[0], resultOffset[0], initial));
+    }
+
+    private static int valueOf(int source, int offset, int[] initial) {
+        return (source == CONSTANT ? offset : initial[source] + offset) & 0xFF;
+    }
+
+    private static void compose(int[] firstSource, int[] firstOffset, int[] thenSource, int[] thenOffset) {
+        int tracked = thenSource.length;
+        int[] source = new int[tracked];
+        int[] offset = new int[tracked];
+        for (int v = 0; v < tracked; v++) {
+            int via = thenSource[v];
+            if (via == CONSTANT) {
+                source[v] = CONSTANT;
+                offset[v] = thenOffset[v];
+            } else {
+                source[v] = firstSource[via];
+                offset[v] = (firstOffset[via] + thenOffset[v]) & 0xFF;
+            }
+        }
+        System.arraycopy(source, 0, thenSource, 0, tracked);
+        System.arraycopy(offset, 0, thenOffset, 0, tracked);
+    }
+
+    private LoopSummary analyze(int entry) {
+        int[] addresses = new int[MAX_TRACKED];
+        int[] physical = new int[MAX_TRACKED];
+        int[] source = new int[MAX_TRACKED];
+        int[] offset = new int[MAX_TRACKED];
+        boolean[] written = new boolean[MAX_TRACKED];
+        int tracked = 1;
+
+        int[] visitedStart = new int[MAX_LOOP_INSTRUCTIONS];
+        int[] visitedSize = new int[MAX_LOOP_INSTRUCTIONS];
+        int[] stores = new int[MAX_LOOP_INSTRUCTIONS];
+        int storeCount = 0;
+
+        int pc = entry;
+        int count = 0;
+        boolean closed = false;
+
+        while (count < MAX_LOOP_INSTRUCTIONS) {
+            int opcode = bus.readByte(pc);
+            int size = switch (opcode) {
+                case InstructionSet.NOP -> 1;
+                case InstructionSet.LDA_IMM, InstructionSet.ADD_IMM, InstructionSet.SUB_IMM -> 2;
+                case InstructionSet.STA, InstructionSet.LDA_MEM, InstructionSet.JMP -> 3;
+                default -> 0;
+            };
+            if (size == 0 || pc + size > limit) {
+                visitedStart[count] = pc;
+                visitedSize[count] = 1;
+                count++;
+                break;
+            }
+            visitedStart[count] = pc;
+            visitedSize[count] = size;
+            count++;
+
+            int operand = size == 2 ? bus.readByte(pc + 1)
+                    : size == 3 ? (bus.readByte(pc + 1) << 8) | bus.readByte(pc + 2) : 0;
+            int next = pc + size;
+
+            switch (opcode) {
+                case InstructionSet.LDA_IMM -> {
+                    source[0] = CONSTANT;
+                    offset[0] = operand;
+                }
+                case InstructionSet.ADD_IMM -> offset[0] = (offset[0] + operand) & 0xFF;
+                case InstructionSet.SUB_IMM -> offset[0] = (offset[0] - operand) & 0xFF;
+                case InstructionSet.LDA_MEM, InstructionSet.STA -> {
+                    if (!bus.isMapped(operand) || bus.isDevice(operand)) {
+                        return notALoop(visitedStart, visitedSize, count);
+                    }
+                    int v = indexOf(physical, tracked, bus.translate(operand));
+                    if (v < 0) {
+                        v = tracked++;
+                        addresses[v] = operand;
+                        physical[v] = bus.translate(operand);
+                        source[v] = v;
+                        offset[v] = 0;
+                    }
+                    if (opcode == InstructionSet.LDA_MEM) {
+                        source[0] = source[v];
+                        offset[0] = offset[v];
+                    } else {
+                        source[v] = source[0];
+                        offset[v] = offset[0];
+                        written[v] = true;
+                        stores[storeCount++] = operand;
+                    }
+                }
+                case InstructionSet.JMP -> next = operand;
+                default -> {
+                }
+            }
+
+            if (next == entry) {
+                closed = true;
+                break;
+            }
+            pc = next;
+            if (pc >= limit) {
+                break;
+            }
+        }
+
+        if (!closed) {
+            return notALoop(visitedStart, visitedSize, count);
+        }
+        for (int i = 0; i < storeCount; i++) {
+            for (int j = 0; j < count; j++) {
+                if (bus.aliases(stores[i], visitedStart[j], visitedSize[j])) {
+                    return notALoop(visitedStart, visitedSize, count);
+                }
+            }
+        }
+
+        return new LoopSummary(count,
+                Arrays.copyOf(visitedStart, count),
+                Arrays.copyOf(visitedSize, count),
+                Arrays.copyOf(addresses, tracked),
+                Arrays.copyOf(physical, tracked),
+                Arrays.copyOf(source, tracked),
+                Arrays.copyOf(offset, tracked),
+                Arrays.copyOf(written, tracked));
+    }
+
+    private LoopSummary notALoop(int[] starts, int[] sizes, int count) {
+        return new LoopSummary(0, Arrays.copyOf(starts, count), Arrays.copyOf(sizes, count),
+                new int[0], new int[0], new int[0], new int[0], new boolean[0]);
+    }
+
+    /**
+     * Lists the entry on every page its visited instructions touch, once per page.
+     */
+    private LoopSummary register(int entry, LoopSummary summary) {
+        int[] starts = summary.visitedStart();
+        int[] sizes = summary.visitedSize();
+        for (int i = 0; i < starts.length; i++) {
+            int last = Math.min(limit, starts[i] + sizes[i]) - 1;
+            for (int page = starts[i] >>> PAGE_SHIFT; page <= last >>> PAGE_SHIFT; page++) {
+                addEntry(page, entry);
+            }
+        }
+        return summary;
+    }
+
+    private void addEntry(int page, int entry) {
+        int[] entries = pageEntries[page];
+        int count = pageEntryCounts[page];
+        for (int i = 0; i < count; i++) {
+            if (entries[i] == entry) {
+                return;
+            }
+        }
+        if (entries == null) {
+            entries = new int[4];
+            pageEntries[page] = entries;
+        } else if (count == entries.length) {
+            entries = Arrays.copyOf(entries, count * 2);
+            pageEntries[page] = entries;
+        }
+        entries[count] = entry;
+        pageEntryCounts[page] = count + 1;
+    }
+
+    private static int indexOf(int[] addresses, int tracked, int address) {
+        for (int v = 1; v < tracked; v++) {
+            if (addresses[v] == address) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@code length} is zero when the code at the entry is not a loop the detector can summarise;
+     * the visited instructions are kept either way so a write to them forces a fresh analysis.
+     */
+    private record LoopSummary(int length, int[] visitedStart, int[] visitedSize,
+                               int[] addresses, int[] physical, int[] source, int[] offset, boolean[] written) {
+        boolean isLoop() {
+            return length > 0;
+        }
+
+        boolean visits(int start, int end) {
+            for (int i = 0; i < visitedStart.length; i++) {
+                if (visitedStart[i] < end && start < visitedStart[i] + visitedSize[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
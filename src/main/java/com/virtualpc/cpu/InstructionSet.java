@@ -12,5 +12,14 @@ public final class InstructionSet {
     public static final int JMP = 0x05;
     public static final int JZ = 0x06;
     public static final int SUB_IMM = 0x07;
+    public static final int WAIT = 0x08;
+    public static final int EI = 0x09;
+    public static final int DI = 0x0A;
+    public static final int RTI = 0x0B;
+    public static final int LDX = 0x0C;
+    public static final int LDY = 0x0D;
+    public static final int FILL = 0x0E;
+    public static final int COPY = 0x0F;
+    public static final int RECT = 0x10;
     public static final int HALT = 0xFF;
 }
\ No newline at end of file
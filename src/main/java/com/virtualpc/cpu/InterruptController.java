@@ -0,0 +1,143 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MmioDevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Eight vectored interrupt lines on the I/O page at {@link #BASE}.
+ * <p>
+ * A raised line stays pending until the CPU takes it or the guest acknowledges it. The CPU takes the
+ * lowest-numbered line that is both pending and unmasked, clearing its pending bit and jumping to its
+ * vector. Writes that may make a line deliverable ask the CPU to re-check before its next instruction.
+ */
+public final class InterruptController implements MmioDevice {
+    public static final int BASE = 0x7D00;
+    public static final int LINE_COUNT = 8;
+
+    public static final int PENDING = 0x00;
+    public static final int MASK = 0x01;
+    public static final int RAISE = 0x02;
+    public static final int VECTORS = 0x10;
+
+    public static final int IRQ_TIMER = 0;
+    public static final int IRQ_VSYNC = 1;
+    public static final int IRQ_INPUT = 2;
+
+    private final int[] vectors = new int[LINE_COUNT];
+    private final Runnable onChange;
+    private int pending;
+    private int mask;
+
+    InterruptController(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    public void raise(int line) {
+        if (line < 0 || line >= LINE_COUNT) {
+            throw new IllegalArgumentException("Interrupt line out of range: " + line);
+        }
+        pending |= 1 << line;
+    }
+
+    public int pending() {
+        return pending;
+    }
+
+    public int mask() {
+        return mask;
+    }
+
+    public int vector(int line) {
+        return vectors[line];
+    }
+
+    /**
+     * Whether some unmasked line is pending.
+     */
+    boolean hasDeliverable() {
+        return (pending & mask) != 0;
+    }
+
+    /**
+     * Takes the highest-priority deliverable line and returns its vector, or -1 when none is deliverable.
+     */
+    int acknowledgeNext() {
+        int deliverable = pending & mask;
+        if (deliverable == 0) {
+            return -1;
+        }
+        int line = Integer.numberOfTrailingZeros(deliverable);
+        pending &= ~(1 << line);
+        return vectors[line];
+    }
+
+    @Override
+    public int read(int address) {
+        int offset = address - BASE;
+        if (offset >= VECTORS && offset < VECTORS + LINE_COUNT * 2) {
+            int vector = vectors[(offset - VECTORS) >>> 1];
+            return (offset & 1) == 0 ? vector >>> 8 : vector & 0xFF;
+        }
+        return switch (offset) {
+            case PENDING -> pending;
+            case MASK -> mask;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Writing {@link #PENDING} clears the bits written as 1, {@link #RAISE} sets them, and the vector
+     * registers hold each line's handler address high byte first.
+     */
+    @Override
+    public void write(int address, int value) {
+        int offset = address - BASE;
+        if (offset >= VECTORS && offset < VECTORS + LINE_COUNT * 2) {
+            int line = (offset - VECTORS) >>> 1;
+            vectors[line] = (offset & 1) == 0
+                    ? (value << 8) | (vectors[line] & 0xFF)
+                    : (vectors[line] & 0xFF00) | value;
+            return;
+        }
+        switch (offset) {
+            case PENDING -> pending &= ~value;
+            case MASK -> {
+                mask = value;
+                onChange.run();
+            }
+            case RAISE -> {
+                pending |= value;
+                onChange.run();
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        pending = 0;
+        mask = 0;
+        Arrays.fill(vectors, 0);
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(pending);
+        out.writeByte(mask);
+        for (int vector : vectors) {
+            out.writeShort(vector);
+        }
+    }
+
+    public void loadState(DataInput in) throws IOException {
+        pending = in.readUnsignedByte();
+        mask = in.readUnsignedByte();
+        for (int line = 0; line < LINE_COUNT; line++) {
+            vectors[line] = in.readUnsignedShort();
+        }
+    }
+}
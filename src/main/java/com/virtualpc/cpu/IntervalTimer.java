@@ -0,0 +1,208 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MmioDevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Programmable interval timer on the I/O page at {@link #BASE}, raising {@link InterruptController#IRQ_TIMER}.
+ * <p>
+ * On the guest clock a tick is {@code PRESCALE + 1} CPU cycles and {@link Cpu#run(int)} stops its
+ * slices exactly on expiry, so firing points are deterministic. On the host clock a tick is
+ * {@code PRESCALE + 1} microseconds of wall time, sampled once per frame by {@link #pollHostClock(long)};
+ * in scripted mode (used by replay) the recorded expiry counts replace the clock.
+ */
+public final class IntervalTimer implements MmioDevice {
+    public static final int BASE = 0x7C00;
+
+    public static final int CONTROL = 0x00;
+    public static final int RELOAD_HIGH = 0x01;
+    public static final int RELOAD_LOW = 0x02;
+    public static final int PRESCALE = 0x03;
+    public static final int COUNT_HIGH = 0x04;
+    public static final int COUNT_LOW = 0x05;
+
+    public static final int CONTROL_ENABLE = 0x01;
+    public static final int CONTROL_PERIODIC = 0x02;
+    public static final int CONTROL_HOST_CLOCK = 0x04;
+
+    private static final long NANOS_PER_MICRO = 1_000;
+
+    private final InterruptController interrupts;
+    private final Runnable onChange;
+    private int control;
+    private int reload;
+    private int prescale;
+    private long remaining;
+    private long lastHostNanos = -1;
+    private boolean scripted;
+    private int scriptedExpiries;
+    private int lastHostExpiries;
+
+    IntervalTimer(InterruptController interrupts, Runnable onChange) {
+        this.interrupts = interrupts;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Guest cycles until the next expiry, or {@link Integer#MAX_VALUE} when the guest clock is not running.
+     */
+    int cyclesUntilExpiry() {
+        return runningOn(0) ? (int) Math.min(remaining, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+    }
+
+    void advance(int cycles) {
+        if (!runningOn(0)) {
+            return;
+        }
+        remaining -= cycles;
+        while (remaining <= 0 && expire()) {
+            remaining += period();
+        }
+    }
+
+    /**
+     * Advances the host clock to {@code nowNanos} and returns how many expiries it produced.
+     */
+    public int pollHostClock(long nowNanos) {
+        int expiries = 0;
+        if (scripted) {
+            for (; scriptedExpiries > 0 && runningOn(CONTROL_HOST_CLOCK); scriptedExpiries--) {
+                expiries++;
+                expire();
+            }
+            scriptedExpiries = 0;
+        } else if (runningOn(CONTROL_HOST_CLOCK)) {
+            if (lastHostNanos >= 0) {
+                remaining -= nowNanos - lastHostNanos;
+            }
+            while (remaining <= 0) {
+                expiries++;
+                if (!expire()) {
+                    break;
+                }
+                remaining += period();
+            }
+        }
+        lastHostNanos = nowNanos;
+        lastHostExpiries = expiries;
+        return expiries;
+    }
+
+    /**
+     * Host clock expiries applied by the most recent {@link #pollHostClock(long)}.
+     */
+    public int lastHostExpiries() {
+        return lastHostExpiries;
+    }
+
+    public void setScripted(boolean scripted) {
+        this.scripted = scripted;
+        this.scriptedExpiries = 0;
+    }
+
+    /**
+     * In scripted mode, makes the next {@link #pollHostClock(long)} apply {@code count} more expiries.
+     */
+    public void script(int count) {
+        scriptedExpiries += count;
+    }
+
+    @Override
+    public int read(int address) {
+        return switch (address - BASE) {
+            case CONTROL -> control;
+            case RELOAD_HIGH -> reload >>> 8;
+            case RELOAD_LOW -> reload & 0xFF;
+            case PRESCALE -> prescale;
+            case COUNT_HIGH -> count() >>> 8;
+            case COUNT_LOW -> count() & 0xFF;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Writing {@link #CONTROL} restarts the countdown from the reload value.
+     */
+    @Override
+    public void write(int address, int value) {
+        switch (address - BASE) {
+            case CONTROL -> {
+                control = value & (CONTROL_ENABLE | CONTROL_PERIODIC | CONTROL_HOST_CLOCK);
+                remaining = period();
+                lastHostNanos = -1;
+                onChange.run();
+            }
+            case RELOAD_HIGH -> reload = (value << 8) | (reload & 0xFF);
+            case RELOAD_LOW -> reload = (reload & 0xFF00) | value;
+            case PRESCALE -> prescale = value;
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        control = 0;
+        reload = 0;
+        prescale = 0;
+        remaining = 0;
+        lastHostNanos = -1;
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(control);
+        out.writeShort(reload);
+        out.writeByte(prescale);
+        out.writeLong(runningOn(0) ? remaining : 0);
+    }
+
+    public void loadState(DataInput in) throws IOException {
+        control = in.readUnsignedByte();
+        reload = in.readUnsignedShort();
+        prescale = in.readUnsignedByte();
+        remaining = in.readLong();
+        if (runningOn(CONTROL_HOST_CLOCK)) {
+            remaining = period();
+        }
+        lastHostNanos = -1;
+    }
+
+    private boolean runningOn(int clock) {
+        return (control & CONTROL_ENABLE) != 0 && (control & CONTROL_HOST_CLOCK) == clock;
+    }
+
+    /**
+     * Raises the timer line; returns whether the timer keeps running.
+     */
+    private boolean expire() {
+        interrupts.raise(InterruptController.IRQ_TIMER);
+        if ((control & CONTROL_PERIODIC) != 0) {
+            return true;
+        }
+        control &= ~CONTROL_ENABLE;
+        remaining = 0;
+        return false;
+    }
+
+    /**
+     * One period in the active clock's units: cycles, or nanoseconds on the host clock. A reload of 0 means 65536 ticks.
+     */
+    private long period() {
+        long ticks = reload == 0 ? 0x10000 : reload;
+        long perTick = prescale + 1L;
+        return (control & CONTROL_HOST_CLOCK) != 0 ? ticks * perTick * NANOS_PER_MICRO : ticks * perTick;
+    }
+
+    /**
+     * Whole ticks left on the guest clock; the host clock reads 0 because its phase is not part of the machine state.
+     */
+    private int count() {
+        if (!runningOn(0)) {
+            return 0;
+        }
+        return (int) Math.min(0xFFFF, (remaining + prescale) / (prescale + 1L));
+    }
+}
@@ -0,0 +1,200 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.MemoryWriteListener;
+import com.virtualpc.memory.MemoryBus;
+
+import java.util.Arrays;
+
+/**
+ * Executes guest code from a cache of pre-decoded instruction words.
+ * Each cached word packs a handler id in the low byte and its operands above it,
+ * so the hot loop never re-reads opcode or operand bytes from RAM. The cache is split into 256-byte pages
+ * allocated the first time code on them runs, so an idle machine holds only the pages it executed.
+ * Stores to device pages take the slow path, which returns as soon as the CPU asks to yield.
+ */
+final class ThreadedInterpreter implements ExecutionEngine, MemoryWriteListener {
+    private static final int OP_DECODE = 0;
+    private static final int OP_NOP = 1;
+    private static final int OP_LDA_IMM = 2;
+    private static final int OP_STA = 3;
+    private static final int OP_LDA_MEM = 4;
+    private static final int OP_ADD_IMM = 5;
+    private static final int OP_SUB_IMM = 6;
+    private static final int OP_JMP = 7;
+    private static final int OP_JZ = 8;
+    private static final int OP_HALT = 9;
+    private static final int OP_LDA_IMM_STA = 10;
+    private static final int OP_ADD_IMM_JMP = 11;
+    private static final int OP_SLOW = 12;
+
+    private static final int MAX_SPAN = 5;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int LIMIT = 0x10000;
+
+    private final MemoryBus bus;
+    private final int[][] code;
+
+    ThreadedInterpreter(MemoryBus bus) {
+        this.bus = bus;
+        this.code = new int[LIMIT >>> PAGE_SHIFT][];
+        bus.addWriteListener(this);
+    }
+
+    @Override
+    public int run(Cpu cpu, int budget) {
+        int pc = cpu.getProgramCounter();
+        int a = cpu.getRegisterA();
+        int executed = 0;
+
+        try {
+            while (executed < budget) {
+                int[] page = code[pc >>> PAGE_SHIFT];
+                int word = page == null ? OP_DECODE : page[pc & PAGE_MASK];
+                if (word == OP_DECODE) {
+                    word = decode(pc);
+                }
+
+                switch (word & 0xFF) {
+                    case OP_NOP -> pc = (pc + 1) & 0xFFFF;
+                    case OP_LDA_IMM -> {
+                        a = word >>> 8;
+                        pc = (pc + 2) & 0xFFFF;
+                    }
+                    case OP_STA -> {
+                        pc = (pc + 3) & 0xFFFF;
+                        bus.writeByte(word >>> 8, a);
+                    }
+                    case OP_LDA_MEM -> {
+                        pc = (pc + 3) & 0xFFFF;
+                        a = bus.readByte(word >>> 8);
+                    }
+                    case OP_ADD_IMM -> {
+                        a = (a + (word >>> 8)) & 0xFF;
+                        pc = (pc + 2) & 0xFFFF;
+                    }
+                    case OP_SUB_IMM -> {
+                        a = (a - (word >>> 8)) & 0xFF;
+                        pc = (pc + 2) & 0xFFFF;
+                    }
+                    case OP_JMP -> pc = word >>> 8;
+                    case OP_JZ -> pc = a == 0 ? word >>> 8 : (pc + 3) & 0xFFFF;
+                    case OP_HALT -> {
+                        pc = (pc + 1) & 0xFFFF;
+                        cpu.halt();
+                        return executed + 1;
+                    }
+                    case OP_LDA_IMM_STA -> {
+                        a = (word >>> 8) & 0xFF;
+                        if (executed + 1 == budget) {
+                            pc = (pc + 2) & 0xFFFF;
+                            return budget;
+                        }
+                        pc = (pc + 5) & 0xFFFF;
+                        executed++;
+                        bus.writeByte(word >>> 16, a);
+                    }
+                    case OP_ADD_IMM_JMP -> {
+                        a = (a + ((word >>> 8) & 0xFF)) & 0xFF;
+                        if (executed + 1 == budget) {
+                            pc = (pc + 2) & 0xFFFF;
+                            return budget;
+                        }
+                        pc = word >>> 16;
+                        executed++;
+                    }
+                    default -> {
+                        cpu.restore(pc, a);
+                        int cost;
+                        try {
+                            cost = cpu.step();
+                        } finally {
+                            pc = cpu.getProgramCounter();
+                            a = cpu.getRegisterA();
+                        }
+                        executed += cost - 1;
+                        if (cpu.isHalted() || cpu.yieldRequested()) {
+                            return executed + 1;
+                        }
+                    }
+                }
+                executed++;
+            }
+            return executed;
+        } finally {
+            cpu.restore(pc, a);
+        }
+    }
+
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        int start = Math.max(0, address - (MAX_SPAN - 1));
+        int end = Math.min(LIMIT, address + length);
+        if (start >= end) {
+            return;
+        }
+
+        for (int page = start >>> PAGE_SHIFT; page <= (end - 1) >>> PAGE_SHIFT; page++) {
+            int[] words = code[page];
+            if (words == null) {
+                continue;
+            }
+            int from = Math.max(start, page << PAGE_SHIFT);
+            int to = Math.min(end, (page + 1) << PAGE_SHIFT);
+            Arrays.fill(words, from & PAGE_MASK, ((to - 1) & PAGE_MASK) + 1, OP_DECODE);
+        }
+    }
+
+    private int decode(int pc) {
+        int word = decodeAt(pc);
+        int[] page = code[pc >>> PAGE_SHIFT];
+        if (page == null) {
+            page = new int[1 << PAGE_SHIFT];
+            code[pc >>> PAGE_SHIFT] = page;
+        }
+        page[pc & PAGE_MASK] = word;
+        return word;
+    }
+
+    private int decodeAt(int pc) {
+        int opcode = bus.readByte(pc);
+        return switch (opcode) {
+            case InstructionSet.NOP -> OP_NOP;
+            case InstructionSet.HALT -> OP_HALT;
+            case InstructionSet.LDA_IMM -> {
+                if (!fits(pc, 2)) {
+                    yield OP_SLOW;
+                }
+                int imm = bus.readByte(pc + 1);
+                if (fits(pc, 5) && bus.readByte(pc + 2) == InstructionSet.STA && !bus.isDevice(word(pc + 3))) {
+                    yield OP_LDA_IMM_STA | (imm << 8) | (word(pc + 3) << 16);
+                }
+                yield OP_LDA_IMM | (imm << 8);
+            }
+            case InstructionSet.ADD_IMM -> {
+                if (!fits(pc, 2)) {
+                    yield OP_SLOW;
+                }
+                int imm = bus.readByte(pc + 1);
+                if (fits(pc, 5) && bus.readByte(pc + 2) == InstructionSet.JMP) {
+                    yield OP_ADD_IMM_JMP | (imm << 8) | (word(pc + 3) << 16);
+                }
+                yield OP_ADD_IMM | (imm << 8);
+            }
+            case InstructionSet.SUB_IMM -> fits(pc, 2) ? OP_SUB_IMM | (bus.readByte(pc + 1) << 8) : OP_SLOW;
+            case InstructionSet.STA -> fits(pc, 3) && !bus.isDevice(word(pc + 1)) ? OP_STA | (word(pc + 1) << 8) : OP_SLOW;
+            case InstructionSet.LDA_MEM -> fits(pc, 3) ? OP_LDA_MEM | (word(pc + 1) << 8) : OP_SLOW;
+            case InstructionSet.JMP -> fits(pc, 3) ? OP_JMP | (word(pc + 1) << 8) : OP_SLOW;
+            case InstructionSet.JZ -> fits(pc, 3) ? OP_JZ | (word(pc + 1) << 8) : OP_SLOW;
+            default -> OP_SLOW;
+        };
+    }
+
+    private boolean fits(int pc, int length) {
+        return pc + length <= LIMIT;
+    }
+
+    private int word(int address) {
+        return (bus.readByte(address) << 8) | bus.readByte(address + 1);
+    }
+}
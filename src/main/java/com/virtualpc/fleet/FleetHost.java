@@ -0,0 +1,119 @@
+package com.virtualpc.fleet;
+
+import com.virtualpc.config.VmConfig;
+import com.virtualpc.core.MachineRuntime;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hosts many headless machines in one JVM and runs their time slices on a work-stealing pool.
+ * Every machine gets its own RAM, CPU, disk image and VFS root under {@code fleetRoot/vm-N}.
+ */
+public final class FleetHost implements AutoCloseable {
+    private static final int MACHINES_PER_TASK = 8;
+
+    private final Path fleetRoot;
+    private final ForkJoinPool pool;
+    private final boolean renderFrames;
+    private final List<MachineRuntime> machines = new ArrayList<>();
+
+    private long rounds;
+    private long elapsedNanos;
+
+    public FleetHost(Path fleetRoot, int parallelism, boolean renderFrames) {
+        this.fleetRoot = fleetRoot;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.renderFrames = renderFrames;
+    }
+
+    public List<MachineRuntime> launch(VmConfig template, int count, byte[] program) throws IOException {
+        List<MachineRuntime> launched = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            VmConfig config = template.forInstance(fleetRoot.resolve("vm-" + machines.size()));
+            MachineRuntime machine = new MachineRuntime(config);
+            machine.loadProgram(program);
+            machines.add(machine);
+            launched.add(machine);
+        }
+        return launched;
+    }
+
+    public FleetStats runRounds(int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            pool.invoke(new SliceTask(0, machines.size()));
+        }
+        elapsedNanos += System.nanoTime() - start;
+        rounds += count;
+        return stats();
+    }
+
+    public FleetStats stats() {
+        long instructions = 0;
+        long fastForwarded = 0;
+        int halted = 0;
+        for (MachineRuntime machine : machines) {
+            instructions += machine.getCpu().getRetiredInstructions();
+            fastForwarded += machine.getCpu().getFastForwardedInstructions();
+            if (machine.getCpu().isHalted()) {
+                halted++;
+            }
+        }
+        return new FleetStats(machines.size(), halted, rounds, instructions, fastForwarded, elapsedNanos);
+    }
+
+    public List<MachineRuntime> getMachines() {
+        return Collections.unmodifiableList(machines);
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        IOException failure = null;
+        for (MachineRuntime machine : machines) {
+            try {
+                machine.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private final class SliceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private SliceTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MACHINES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    MachineRuntime machine = machines.get(i);
+                    if (renderFrames) {
+                        machine.runFrame();
+                    } else {
+                        machine.run(machine.getConfig().cyclesPerFrame());
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SliceTask(from, middle), new SliceTask(middle, to));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.virtualpc.fleet;
+
+/**
+ * {@code guestInstructions} counts instructions the guests actually executed; loop iterations the
+ * idle-loop detector applied in closed form are reported separately and left out of the rate.
+ */
+public record FleetStats(
+        int machineCount,
+        int haltedCount,
+        long rounds,
+        long guestInstructions,
+        long fastForwardedInstructions,
+        long elapsedNanos
+) {
+    public double instructionsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : guestInstructions * 1_000_000_000.0 / elapsedNanos;
+    }
+}
@@ -0,0 +1,76 @@
+package com.virtualpc.input;
+
+/**
+ * The events one frame drained from an {@link InputRing}, oldest first, in reusable primitive arrays.
+ * Owned by the machine thread.
+ */
+public final class InputBatch {
+    private final long[] headers;
+    private final long[] positions;
+    private final long[] timestamps;
+    private int size;
+
+    public InputBatch(int capacity) {
+        this.headers = new long[capacity];
+        this.positions = new long[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return headers.length;
+    }
+
+    public int type(int index) {
+        return (int) (headers[index] & 0xFF);
+    }
+
+    public int buttons(int index) {
+        return (int) ((headers[index] >>> 8) & 0xFF);
+    }
+
+    public int keyCode(int index) {
+        return (int) ((headers[index] >>> 16) & 0xFFFF);
+    }
+
+    public char character(int index) {
+        return (char) ((headers[index] >>> 32) & 0xFFFF);
+    }
+
+    public int x(int index) {
+        return (short) positions[index];
+    }
+
+    public int y(int index) {
+        return (short) (positions[index] >>> 16);
+    }
+
+    /**
+     * {@link System#nanoTime()} when the event was posted.
+     */
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(long header, long position, long timestamp) {
+        headers[size] = header;
+        positions[size] = position;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    static long header(int type, int keyCode, char character, int buttons) {
+        return (type & 0xFFL) | (buttons & 0xFFL) << 8 | (keyCode & 0xFFFFL) << 16 | (long) character << 32;
+    }
+
+    static long position(int x, int y) {
+        return (x & 0xFFFFL) | (y & 0xFFFFL) << 16;
+    }
+}
@@ -0,0 +1,178 @@
+package com.virtualpc.input;
+
+import com.virtualpc.memory.MmioDevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Guest-visible input registers on the I/O page at {@link #BASE}: pointer position and buttons, a
+ * keyboard FIFO behind status and data ports, and a count of input events delivered.
+ * <p>
+ * {@code MachineRuntime} applies each frame's {@link InputBatch} before the CPU slice runs, so a guest
+ * sees input in the same slice as the OS. Reading {@link #KEY_DATA} pops the FIFO; every other read is
+ * side-effect free.
+ */
+public final class InputPorts implements MmioDevice {
+    public static final int BASE = 0x7E00;
+
+    public static final int MOUSE_X = 0x00;
+    public static final int MOUSE_X_HIGH = 0x01;
+    public static final int MOUSE_Y = 0x02;
+    public static final int MOUSE_Y_HIGH = 0x03;
+    public static final int MOUSE_BUTTONS = 0x04;
+    public static final int KEY_STATUS = 0x05;
+    public static final int KEY_DATA = 0x06;
+    public static final int KEY_COUNT = 0x07;
+    public static final int EVENTS = 0x08;
+    public static final int EVENTS_HIGH = 0x09;
+
+    public static final int STATUS_READY = 0x01;
+    public static final int STATUS_OVERFLOW = 0x80;
+
+    public static final int KEY_BACKSPACE = 0x08;
+    public static final int KEY_ENTER = 0x0D;
+    public static final int KEY_PAGE_UP = 0x1E;
+    public static final int KEY_PAGE_DOWN = 0x1F;
+
+    private static final int FIFO_SIZE = 64;
+    private static final int FIFO_MASK = FIFO_SIZE - 1;
+
+    private final int maxX;
+    private final int maxY;
+    private final byte[] fifo = new byte[FIFO_SIZE];
+    private int fifoHead;
+    private int fifoCount;
+    private boolean overflow;
+    private int mouseX;
+    private int mouseY;
+    private int buttons;
+    private int events;
+
+    public InputPorts(int width, int height) {
+        this.maxX = Math.max(0, width - 1);
+        this.maxY = Math.max(0, height - 1);
+    }
+
+    /**
+     * Folds one frame's input into the registers, oldest event first.
+     */
+    public void apply(InputBatch input) {
+        for (int i = 0; i < input.size(); i++) {
+            switch (input.type(i)) {
+                case InputRing.MOUSE_MOVE -> {
+                    mouseX = Math.max(0, Math.min(maxX, input.x(i)));
+                    mouseY = Math.max(0, Math.min(maxY, input.y(i)));
+                }
+                case InputRing.MOUSE_PRESS -> buttons |= buttonBit(input.buttons(i));
+                case InputRing.MOUSE_RELEASE -> buttons &= ~buttonBit(input.buttons(i));
+                case InputRing.CHAR -> {
+                    char ch = input.character(i);
+                    if (ch >= 32 && ch <= 126) {
+                        pushKey(ch);
+                    }
+                }
+                case InputRing.ENTER -> pushKey(KEY_ENTER);
+                case InputRing.BACKSPACE -> pushKey(KEY_BACKSPACE);
+                case InputRing.PAGE_UP -> pushKey(KEY_PAGE_UP);
+                case InputRing.PAGE_DOWN -> pushKey(KEY_PAGE_DOWN);
+                default -> {
+                }
+            }
+            events = (events + 1) & 0xFFFF;
+        }
+    }
+
+    @Override
+    public int read(int address) {
+        return switch (address - BASE) {
+            case MOUSE_X -> mouseX & 0xFF;
+            case MOUSE_X_HIGH -> mouseX >>> 8;
+            case MOUSE_Y -> mouseY & 0xFF;
+            case MOUSE_Y_HIGH -> mouseY >>> 8;
+            case MOUSE_BUTTONS -> buttons;
+            case KEY_STATUS -> (fifoCount > 0 ? STATUS_READY : 0) | (overflow ? STATUS_OVERFLOW : 0);
+            case KEY_DATA -> popKey();
+            case KEY_COUNT -> fifoCount;
+            case EVENTS -> events & 0xFF;
+            case EVENTS_HIGH -> events >>> 8;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Any write to {@link #KEY_STATUS} empties the keyboard FIFO and clears the overflow flag; other
+     * registers are read-only.
+     */
+    @Override
+    public void write(int address, int value) {
+        if (address - BASE == KEY_STATUS) {
+            clearKeys();
+        }
+    }
+
+    /**
+     * Drops queued keys, so a program started from the terminal does not read the command that launched it.
+     */
+    @Override
+    public void reset() {
+        clearKeys();
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeShort(mouseX);
+        out.writeShort(mouseY);
+        out.writeByte(buttons);
+        out.writeShort(events);
+        out.writeBoolean(overflow);
+        out.writeByte(fifoCount);
+        for (int i = 0; i < fifoCount; i++) {
+            out.writeByte(fifo[(fifoHead + i) & FIFO_MASK]);
+        }
+    }
+
+    public void loadState(DataInput in) throws IOException {
+        mouseX = in.readUnsignedShort();
+        mouseY = in.readUnsignedShort();
+        buttons = in.readUnsignedByte();
+        events = in.readUnsignedShort();
+        overflow = in.readBoolean();
+        fifoHead = 0;
+        fifoCount = in.readUnsignedByte();
+        if (fifoCount > FIFO_SIZE) {
+            throw new IOException("Keyboard FIFO holds at most " + FIFO_SIZE + " keys: " + fifoCount);
+        }
+        in.readFully(fifo, 0, fifoCount);
+    }
+
+    private void pushKey(int key) {
+        if (fifoCount == FIFO_SIZE) {
+            overflow = true;
+            return;
+        }
+        fifo[(fifoHead + fifoCount) & FIFO_MASK] = (byte) key;
+        fifoCount++;
+    }
+
+    private int popKey() {
+        if (fifoCount == 0) {
+            return 0;
+        }
+        int key = fifo[fifoHead] & 0xFF;
+        fifoHead = (fifoHead + 1) & FIFO_MASK;
+        fifoCount--;
+        return key;
+    }
+
+    private void clearKeys() {
+        fifoHead = 0;
+        fifoCount = 0;
+        overflow = false;
+    }
+
+    private static int buttonBit(int button) {
+        // AWT numbers buttons from 1; events posted without a button count as the primary one.
+        return button >= 1 && button <= 8 ? 1 << (button - 1) : 1;
+    }
+}
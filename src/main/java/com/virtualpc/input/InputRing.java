@@ -0,0 +1,102 @@
+package com.virtualpc.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring of input events packed into primitive slots.
+ * <p>
+ * The front end thread posts, the machine thread drains once per frame into an {@link InputBatch}.
+ * Neither side locks or allocates: the producer publishes a slot with a release store of the tail,
+ * the consumer frees slots with a release store of the head. A post into a full ring is refused
+ * rather than overwriting events the machine has not seen.
+ */
+public final class InputRing {
+    public static final int MOUSE_MOVE = 0;
+    public static final int MOUSE_PRESS = 1;
+    public static final int MOUSE_RELEASE = 2;
+    public static final int CHAR = 3;
+    public static final int ENTER = 4;
+    public static final int BACKSPACE = 5;
+    public static final int PAGE_UP = 6;
+    public static final int PAGE_DOWN = 7;
+    public static final int TYPE_COUNT = 8;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    static final int LONGS_PER_EVENT = 3;
+
+    private final long[] slots;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long cachedHead;
+
+    public InputRing() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InputRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Input ring capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new long[capacity * LONGS_PER_EVENT];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean postMove(int x, int y) {
+        return post(MOUSE_MOVE, 0, '\0', x, y, 0);
+    }
+
+    public boolean postChar(char character) {
+        return post(CHAR, 0, character, 0, 0, 0);
+    }
+
+    /**
+     * Posts a button or key event that carries no character or position.
+     */
+    public boolean postKey(int type, int keyCode) {
+        return post(type, keyCode, '\0', 0, 0, 0);
+    }
+
+    /**
+     * Producer side. Returns false, dropping the event, only when the machine has fallen a full ring behind.
+     */
+    public boolean post(int type, int keyCode, char character, int x, int y, int buttons) {
+        if (type < 0 || type >= TYPE_COUNT) {
+            throw new IllegalArgumentException("Unknown input event type: " + type);
+        }
+        long next = tail.getPlain();
+        if (next - cachedHead >= capacity) {
+            cachedHead = head.getAcquire();
+            if (next - cachedHead >= capacity) {
+                return false;
+            }
+        }
+        int slot = (int) (next & mask) * LONGS_PER_EVENT;
+        slots[slot] = InputBatch.header(type, keyCode, character, buttons);
+        slots[slot + 1] = InputBatch.position(x, y);
+        slots[slot + 2] = System.nanoTime();
+        tail.setRelease(next + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: moves every published event into {@code batch}, replacing its contents, and returns the count.
+     */
+    public int drain(InputBatch batch) {
+        long first = head.getPlain();
+        long end = Math.min(tail.getAcquire(), first + batch.capacity());
+        batch.clear();
+        for (long event = first; event < end; event++) {
+            int slot = (int) (event & mask) * LONGS_PER_EVENT;
+            batch.add(slots[slot], slots[slot + 1], slots[slot + 2]);
+        }
+        head.setRelease(end);
+        return batch.size();
+    }
+}
@@ -0,0 +1,154 @@
+package com.virtualpc.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CPU-side memory bus: a 256-entry table with one slot per 256-byte page of the 64 KB address space.
+ * Empty slots fall through to {@link Mmu} translation and {@link Ram}; occupied slots dispatch to the
+ * mapped {@link MmioDevice}. The MMU bank registers occupy the I/O page at {@link Mmu#REGISTER_BASE}.
+ */
+public final class MemoryBus {
+    public static final int PAGE_SHIFT = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Mmu mmu;
+    private final MmioDevice[] devices = new MmioDevice[0x10000 >>> PAGE_SHIFT];
+    private final List<MmioDevice> mapped = new ArrayList<>();
+
+    public MemoryBus(Mmu mmu) {
+        this.mmu = mmu;
+        map(Mmu.REGISTER_BASE, PAGE_SIZE, mmu.registers());
+    }
+
+    public Mmu mmu() {
+        return mmu;
+    }
+
+    /**
+     * Routes every access in {@code [start, start + length)} to {@code device}; the range must cover whole pages.
+     */
+    public void map(int start, int length, MmioDevice device) {
+        if (device == null) {
+            throw new IllegalArgumentException("MMIO device cannot be null");
+        }
+        if ((start & PAGE_MASK) != 0 || (length & PAGE_MASK) != 0 || length <= 0 || start < 0 || start + length > 0x10000) {
+            throw new IllegalArgumentException("MMIO range must be page aligned: 0x" + Integer.toHexString(start)
+                    + " +" + length);
+        }
+        for (int page = start >>> PAGE_SHIFT; page < (start + length) >>> PAGE_SHIFT; page++) {
+            if (devices[page] != null) {
+                throw new IllegalStateException("MMIO page already mapped: 0x" + Integer.toHexString(page << PAGE_SHIFT));
+            }
+        }
+        for (int page = start >>> PAGE_SHIFT; page < (start + length) >>> PAGE_SHIFT; page++) {
+            devices[page] = device;
+        }
+        if (!mapped.contains(device)) {
+            mapped.add(device);
+        }
+    }
+
+    /**
+     * Restores the identity mapping and resets every mapped device.
+     */
+    public void reset() {
+        mmu.reset();
+        for (MmioDevice device : mapped) {
+            device.reset();
+        }
+    }
+
+    public int readByte(int address) {
+        MmioDevice device = devices[address >>> PAGE_SHIFT];
+        if (device == null) {
+            return mmu.readByte(address);
+        }
+        return device.read(address) & 0xFF;
+    }
+
+    public void writeByte(int address, int value) {
+        MmioDevice device = devices[address >>> PAGE_SHIFT];
+        if (device == null) {
+            mmu.writeByte(address, value);
+        } else {
+            device.write(address, value & 0xFF);
+        }
+    }
+
+    /**
+     * Writes {@code value} to {@code length} consecutive CPU addresses from {@code address}, wrapping at
+     * {@code 0xFFFF}. RAM-only ranges become one bulk fill per window; ranges touching a device are
+     * written byte by byte so the device sees every access.
+     */
+    public void fill(int address, int length, int value) {
+        address &= 0xFFFF;
+        if (address + length <= 0x10000 && !touchesDevice(address, length)) {
+            mmu.fill(address, length, value);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            writeByte((address + i) & 0xFFFF, value);
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes between CPU ranges with the same wrapping and device rules as
+     * {@link #fill}; overlapping ranges behave as if the source were read in full first.
+     */
+    public void copy(int destination, int source, int length) {
+        destination &= 0xFFFF;
+        source &= 0xFFFF;
+        if (destination + length <= 0x10000 && source + length <= 0x10000
+                && !touchesDevice(destination, length) && !touchesDevice(source, length)) {
+            mmu.copy(destination, source, length);
+            return;
+        }
+        if (((destination - source) & 0xFFFF) < length) {
+            for (int i = length - 1; i >= 0; i--) {
+                writeByte((destination + i) & 0xFFFF, readByte((source + i) & 0xFFFF));
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                writeByte((destination + i) & 0xFFFF, readByte((source + i) & 0xFFFF));
+            }
+        }
+    }
+
+    public boolean isDevice(int address) {
+        return devices[(address >>> PAGE_SHIFT) & 0xFF] != null;
+    }
+
+    public boolean isMapped(int address) {
+        return isDevice(address) || mmu.isMapped(address);
+    }
+
+    private boolean touchesDevice(int address, int length) {
+        for (int page = address >>> PAGE_SHIFT; length > 0 && page <= (address + length - 1) >>> PAGE_SHIFT; page++) {
+            if (devices[page] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int translate(int address) {
+        return mmu.translate(address);
+    }
+
+    /**
+     * Whether a write to {@code address} may change the bytes at {@code [start, start + length)}.
+     */
+    public boolean aliases(int address, int start, int length) {
+        return !isDevice(address) && mmu.aliases(address, start, length);
+    }
+
+    /**
+     * Listeners hear about RAM writes at the CPU addresses that map them; device accesses are not reported.
+     */
+    public void addWriteListener(MemoryWriteListener listener) {
+        mmu.addWriteListener(listener);
+    }
+}
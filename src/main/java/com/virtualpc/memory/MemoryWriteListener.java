@@ -0,0 +1,6 @@
+package com.virtualpc.memory;
+
+@FunctionalInterface
+public interface MemoryWriteListener {
+    void onMemoryWrite(int address, int length);
+}
@@ -0,0 +1,16 @@
+package com.virtualpc.memory;
+
+/**
+ * A device mapped into the CPU address space by {@link MemoryBus}; addresses are CPU addresses.
+ */
+public interface MmioDevice {
+    int read(int address);
+
+    void write(int address, int value);
+
+    /**
+     * Called when the CPU reboots.
+     */
+    default void reset() {
+    }
+}
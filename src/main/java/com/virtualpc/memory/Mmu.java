@@ -0,0 +1,219 @@
+package com.virtualpc.memory;
+
+import java.util.Arrays;
+
+/**
+ * The CPU's 64 KB view of physical {@link Ram}, split into sixteen 4 KB windows.
+ * <p>
+ * Each window maps onto one physical frame through a bank register the guest programs at
+ * {@code 0x7F00 + window}; {@link MemoryBus} maps those registers over the I/O page.
+ * Writes to physical memory are reported to listeners at every CPU address that currently
+ * maps them, and a remap is reported as a write covering the whole window.
+ */
+public final class Mmu implements MemoryWriteListener {
+    public static final int WINDOW_SHIFT = Ram.PAGE_SHIFT;
+    public static final int WINDOW_SIZE = 1 << WINDOW_SHIFT;
+    public static final int WINDOW_COUNT = 0x10000 >>> WINDOW_SHIFT;
+    public static final int REGISTER_BASE = 0x7F00;
+
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int UNMAPPED = Integer.MIN_VALUE;
+
+    private final Ram ram;
+    private final int frameCount;
+    private final int[] banks = new int[WINDOW_COUNT];
+    private final int[] windowBases = new int[WINDOW_COUNT];
+    private final int[] frameWindows;
+    private MemoryWriteListener[] writeListeners = new MemoryWriteListener[0];
+
+    public Mmu(Ram ram) {
+        this.ram = ram;
+        this.frameCount = (ram.size() + WINDOW_MASK) >>> WINDOW_SHIFT;
+        this.frameWindows = new int[frameCount];
+        Arrays.fill(windowBases, UNMAPPED);
+        reset();
+        ram.addWriteListener(this);
+    }
+
+    public Ram ram() {
+        return ram;
+    }
+
+    /**
+     * Restores the identity mapping: window {@code n} shows physical frame {@code n}.
+     */
+    public void reset() {
+        for (int window = 0; window < WINDOW_COUNT; window++) {
+            setBank(window, window);
+        }
+    }
+
+    public int readByte(int address) {
+        return ram.readByte(windowBases[address >>> WINDOW_SHIFT] + (address & WINDOW_MASK));
+    }
+
+    public void writeByte(int address, int value) {
+        ram.writeByte(windowBases[address >>> WINDOW_SHIFT] + (address & WINDOW_MASK), value);
+    }
+
+    /**
+     * The bank registers as a device: offset {@code n} reads and writes window {@code n}'s frame number.
+     */
+    public MmioDevice registers() {
+        return new MmioDevice() {
+            @Override
+            public int read(int address) {
+                int window = address - REGISTER_BASE;
+                return window >= 0 && window < WINDOW_COUNT ? banks[window] : 0;
+            }
+
+            @Override
+            public void write(int address, int value) {
+                int window = address - REGISTER_BASE;
+                if (window >= 0 && window < WINDOW_COUNT) {
+                    setBank(window, value);
+                }
+            }
+        };
+    }
+
+    public int getBank(int window) {
+        return banks[window];
+    }
+
+    /**
+     * Maps {@code window} onto physical frame {@code frame}; frames beyond installed RAM leave it unmapped.
+     */
+    public void setBank(int window, int frame) {
+        if (window < 0 || window >= WINDOW_COUNT) {
+            throw new IllegalArgumentException("MMU window out of range: " + window);
+        }
+        int bank = frame & 0xFF;
+        int base = bank < frameCount ? bank << WINDOW_SHIFT : UNMAPPED;
+        banks[window] = bank;
+        if (windowBases[window] == base) {
+            return;
+        }
+
+        int previous = windowBases[window];
+        if (previous != UNMAPPED) {
+            frameWindows[previous >>> WINDOW_SHIFT] &= ~(1 << window);
+        }
+        windowBases[window] = base;
+        if (base != UNMAPPED) {
+            frameWindows[bank] |= 1 << window;
+        }
+        notifyWrite(window << WINDOW_SHIFT, WINDOW_SIZE);
+    }
+
+    /**
+     * Fills CPU addresses {@code [address, address + length)}, which must not wrap past {@code 0xFFFF},
+     * one window at a time.
+     */
+    public void fill(int address, int length, int value) {
+        int end = address + length;
+        for (int cpu = address; cpu < end; ) {
+            int chunk = Math.min(end, (cpu | WINDOW_MASK) + 1) - cpu;
+            ram.fill(physical(cpu), chunk, value);
+            cpu += chunk;
+        }
+    }
+
+    /**
+     * Copies between CPU ranges that must not wrap past {@code 0xFFFF}; an overlapping destination above
+     * the source is copied from the end so the source is read before it is overwritten.
+     */
+    public void copy(int destination, int source, int length) {
+        if (destination > source && destination < source + length) {
+            for (int remaining = length; remaining > 0; ) {
+                int srcLast = source + remaining - 1;
+                int dstLast = destination + remaining - 1;
+                int chunk = Math.min(remaining, Math.min((srcLast & WINDOW_MASK) + 1, (dstLast & WINDOW_MASK) + 1));
+                remaining -= chunk;
+                ram.copy(physical(destination + remaining), physical(source + remaining), chunk);
+            }
+        } else {
+            for (int copied = 0; copied < length; ) {
+                int src = source + copied;
+                int dst = destination + copied;
+                int chunk = Math.min(length - copied,
+                        Math.min(WINDOW_SIZE - (src & WINDOW_MASK), WINDOW_SIZE - (dst & WINDOW_MASK)));
+                ram.copy(physical(dst), physical(src), chunk);
+                copied += chunk;
+            }
+        }
+    }
+
+    public boolean isMapped(int address) {
+        return windowBases[(address >>> WINDOW_SHIFT) & 0xF] != UNMAPPED;
+    }
+
+    /**
+     * Physical address behind a CPU address, or a negative value when its window is unmapped.
+     */
+    public int translate(int address) {
+        return windowBases[(address >>> WINDOW_SHIFT) & 0xF] + (address & WINDOW_MASK);
+    }
+
+    /**
+     * Whether the physical byte behind {@code address} also backs any CPU address in {@code [start, start + length)}.
+     */
+    public boolean aliases(int address, int start, int length) {
+        int target = translate(address);
+        if (target < 0) {
+            return false;
+        }
+        int cpu = start;
+        int end = Math.min(0x10000, start + length);
+        while (cpu < end) {
+            int chunkEnd = Math.min(end, (cpu | WINDOW_MASK) + 1);
+            int base = translate(cpu);
+            if (base >= 0 && target >= base && target < base + (chunkEnd - cpu)) {
+                return true;
+            }
+            cpu = chunkEnd;
+        }
+        return false;
+    }
+
+    public void addWriteListener(MemoryWriteListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Write listener cannot be null");
+        }
+        writeListeners = Arrays.copyOf(writeListeners, writeListeners.length + 1);
+        writeListeners[writeListeners.length - 1] = listener;
+    }
+
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        int end = address + length;
+        for (int frame = address >>> WINDOW_SHIFT; frame <= (end - 1) >>> WINDOW_SHIFT && frame < frameCount; frame++) {
+            int windows = frameWindows[frame];
+            if (windows == 0) {
+                continue;
+            }
+            int frameBase = frame << WINDOW_SHIFT;
+            int from = Math.max(address, frameBase) - frameBase;
+            int to = Math.min(end, frameBase + WINDOW_SIZE) - frameBase;
+            for (int window = 0; windows != 0; window++, windows >>>= 1) {
+                if ((windows & 1) != 0) {
+                    notifyWrite((window << WINDOW_SHIFT) + from, to - from);
+                }
+            }
+        }
+    }
+
+    private int physical(int address) {
+        int target = translate(address);
+        if (target < 0) {
+            throw new IllegalArgumentException("CPU address not mapped: 0x" + Integer.toHexString(address));
+        }
+        return target;
+    }
+
+    private void notifyWrite(int address, int length) {
+        for (MemoryWriteListener listener : writeListeners) {
+            listener.onMemoryWrite(address, length);
+        }
+    }
+}
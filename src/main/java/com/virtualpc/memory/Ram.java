@@ -2,38 +2,206 @@ package com.virtualpc.memory;
 
 import com.virtualpc.util.ByteUtil;
 
+import java.util.Arrays;
+
+/**
+ * Guest memory stored as fixed-size pages.
+ * Pages handed out by {@link #fork()} are shared until the first write on either side copies them.
+ * A range can be {@link #pin pinned} to one contiguous array that host code may wrap directly.
+ */
 public final class Ram {
-    private final byte[] cells;
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int size;
+    private final byte[][] pages;
+    private final int[] pageOffsets;
+    private final boolean[] shared;
+    private int pinnedFirstPage;
+    private int pinnedPageCount;
+    private MemoryWriteListener[] writeListeners = new MemoryWriteListener[0];
 
     public Ram(int sizeBytes) {
         if (sizeBytes <= 0) {
             throw new IllegalArgumentException("RAM size must be positive");
         }
-        this.cells = new byte[sizeBytes];
+        this.size = sizeBytes;
+        this.pages = new byte[(sizeBytes + PAGE_MASK) >>> PAGE_SHIFT][];
+        this.pageOffsets = new int[pages.length];
+        this.shared = new boolean[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new byte[PAGE_SIZE];
+        }
+    }
+
+    private Ram(Ram source) {
+        this.size = source.size;
+        this.pages = source.pages.clone();
+        this.pageOffsets = source.pageOffsets.clone();
+        this.shared = new boolean[pages.length];
+        Arrays.fill(shared, true);
+        Arrays.fill(source.shared, true);
+        Arrays.fill(source.shared, source.pinnedFirstPage, source.pinnedFirstPage + source.pinnedPageCount, false);
+        if (source.pinnedPageCount > 0) {
+            int start = source.pinnedFirstPage << PAGE_SHIFT;
+            byte[] region = new byte[source.pinnedPageCount << PAGE_SHIFT];
+            source.readBlock(start, region);
+            assignPinned(source.pinnedFirstPage, source.pinnedPageCount, region);
+        }
     }
 
     public int size() {
-        return cells.length;
+        return size;
+    }
+
+    public Ram fork() {
+        return new Ram(this);
+    }
+
+    public int privatePageCount() {
+        int count = 0;
+        for (boolean pageShared : shared) {
+            if (!pageShared) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves {@code [start, start + length)} into one contiguous array and returns it; both bounds must be
+     * page aligned. The array stays the backing store of that range for the life of this RAM: pinned pages
+     * are never shared, so {@link #fork()} gives the child its own copy up front.
+     */
+    public byte[] pin(int start, int length) {
+        if ((start & PAGE_MASK) != 0 || (length & PAGE_MASK) != 0 || length <= 0 || start < 0 || start + length > size) {
+            throw new IllegalArgumentException("Pinned range must be page aligned inside RAM");
+        }
+        if (pinnedPageCount > 0) {
+            throw new IllegalStateException("A range is already pinned");
+        }
+        byte[] region = new byte[length];
+        readBlock(start, region);
+        assignPinned(start >>> PAGE_SHIFT, length >>> PAGE_SHIFT, region);
+        return region;
     }
 
     public void writeByte(int address, int value) {
         validateAddress(address);
-        cells[address] = (byte) (value & 0xFF);
+        int page = address >>> PAGE_SHIFT;
+        writablePage(page)[pageOffsets[page] + (address & PAGE_MASK)] = (byte) (value & 0xFF);
+        notifyWrite(address, 1);
     }
 
     public int readByte(int address) {
         validateAddress(address);
-        return cells[address] & 0xFF;
+        int page = address >>> PAGE_SHIFT;
+        return pages[page][pageOffsets[page] + (address & PAGE_MASK)] & 0xFF;
     }
 
     public void writeBlock(int startAddress, byte[] data) {
         if (data == null) {
             throw new IllegalArgumentException("Data block cannot be null");
         }
-        if (startAddress < 0 || startAddress + data.length > cells.length) {
+        writeBlock(startAddress, data, 0, data.length);
+    }
+
+    public void writeBlock(int startAddress, byte[] data, int offset, int length) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data block cannot be null");
+        }
+        if (startAddress < 0 || startAddress + length > size || offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Data block exceeds RAM boundaries");
+        }
+
+        int copied = 0;
+        while (copied < length) {
+            int address = startAddress + copied;
+            int chunk = Math.min(length - copied, PAGE_SIZE - (address & PAGE_MASK));
+            int page = address >>> PAGE_SHIFT;
+            System.arraycopy(data, offset + copied, writablePage(page), pageOffsets[page] + (address & PAGE_MASK), chunk);
+            copied += chunk;
+        }
+        notifyWrite(startAddress, length);
+    }
+
+    public void readBlock(int startAddress, byte[] target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target block cannot be null");
+        }
+        readBlock(startAddress, target, 0, target.length);
+    }
+
+    public void readBlock(int startAddress, byte[] target, int offset, int length) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target block cannot be null");
+        }
+        if (startAddress < 0 || startAddress + length > size || offset < 0 || length < 0 || offset + length > target.length) {
             throw new IllegalArgumentException("Data block exceeds RAM boundaries");
         }
-        System.arraycopy(data, 0, cells, startAddress, data.length);
+
+        int copied = 0;
+        while (copied < length) {
+            int address = startAddress + copied;
+            int chunk = Math.min(length - copied, PAGE_SIZE - (address & PAGE_MASK));
+            int page = address >>> PAGE_SHIFT;
+            System.arraycopy(pages[page], pageOffsets[page] + (address & PAGE_MASK), target, offset + copied, chunk);
+            copied += chunk;
+        }
+    }
+
+    public void fill(int startAddress, int length, int value) {
+        if (startAddress < 0 || length < 0 || startAddress + length > size) {
+            throw new IllegalArgumentException("Fill exceeds RAM boundaries");
+        }
+
+        int filled = 0;
+        while (filled < length) {
+            int address = startAddress + filled;
+            int chunk = Math.min(length - filled, PAGE_SIZE - (address & PAGE_MASK));
+            int page = address >>> PAGE_SHIFT;
+            int from = pageOffsets[page] + (address & PAGE_MASK);
+            Arrays.fill(writablePage(page), from, from + chunk, (byte) value);
+            filled += chunk;
+        }
+        if (length > 0) {
+            notifyWrite(startAddress, length);
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes from {@code source} to {@code destination}; overlapping ranges behave
+     * as if the source were read in full first.
+     */
+    public void copy(int destination, int source, int length) {
+        if (destination < 0 || source < 0 || length < 0 || destination + length > size || source + length > size) {
+            throw new IllegalArgumentException("Copy exceeds RAM boundaries");
+        }
+
+        if (destination > source && destination < source + length) {
+            int remaining = length;
+            while (remaining > 0) {
+                int srcLast = source + remaining - 1;
+                int dstLast = destination + remaining - 1;
+                int chunk = Math.min(remaining, Math.min((srcLast & PAGE_MASK) + 1, (dstLast & PAGE_MASK) + 1));
+                copyChunk(destination + remaining - chunk, source + remaining - chunk, chunk);
+                remaining -= chunk;
+            }
+        } else {
+            int copied = 0;
+            while (copied < length) {
+                int src = source + copied;
+                int dst = destination + copied;
+                int chunk = Math.min(length - copied,
+                        Math.min(PAGE_SIZE - (src & PAGE_MASK), PAGE_SIZE - (dst & PAGE_MASK)));
+                copyChunk(dst, src, chunk);
+                copied += chunk;
+            }
+        }
+        if (length > 0) {
+            notifyWrite(destination, length);
+        }
     }
 
     public int readWord16(int address) {
@@ -42,9 +210,49 @@ public final class Ram {
         return ByteUtil.toWord16(hi, lo);
     }
 
+    public void addWriteListener(MemoryWriteListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Write listener cannot be null");
+        }
+        writeListeners = Arrays.copyOf(writeListeners, writeListeners.length + 1);
+        writeListeners[writeListeners.length - 1] = listener;
+    }
+
+    private void assignPinned(int firstPage, int pageCount, byte[] region) {
+        for (int i = 0; i < pageCount; i++) {
+            pages[firstPage + i] = region;
+            pageOffsets[firstPage + i] = i << PAGE_SHIFT;
+            shared[firstPage + i] = false;
+        }
+        pinnedFirstPage = firstPage;
+        pinnedPageCount = pageCount;
+    }
+
+    private void copyChunk(int destination, int source, int length) {
+        int dstPage = destination >>> PAGE_SHIFT;
+        byte[] target = writablePage(dstPage);
+        int srcPage = source >>> PAGE_SHIFT;
+        System.arraycopy(pages[srcPage], pageOffsets[srcPage] + (source & PAGE_MASK),
+                target, pageOffsets[dstPage] + (destination & PAGE_MASK), length);
+    }
+
+    private byte[] writablePage(int page) {
+        if (shared[page]) {
+            pages[page] = pages[page].clone();
+            shared[page] = false;
+        }
+        return pages[page];
+    }
+
+    private void notifyWrite(int address, int length) {
+        for (MemoryWriteListener listener : writeListeners) {
+            listener.onMemoryWrite(address, length);
+        }
+    }
+
     private void validateAddress(int address) {
-        if (address < 0 || address >= cells.length) {
+        if (address < 0 || address >= size) {
             throw new IllegalArgumentException("RAM address out of bounds: 0x" + Integer.toHexString(address));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package com.virtualpc.os;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs one machine's blocking file system calls off the frame thread.
+ * <p>
+ * Requests execute one at a time in submission order on a small pool shared by every machine, so a
+ * command that lists a folder sees the folder an earlier command created. Completions are applied by
+ * the frame thread, also in submission order, when it calls {@link #applyCompleted()} at the start of a
+ * tick. A slow host disk delays later completions but never the frame loop.
+ * <p>
+ * In scripted mode (used by replay) each {@link #applyCompleted()} applies exactly the number of
+ * completions announced with {@link #script(int)}, waiting for them if needed, so results land on the
+ * frame they were recorded on.
+ */
+public final class AsyncIo {
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    private static final ExecutorService SHARED_POOL = Executors.newFixedThreadPool(2, task -> {
+        Thread thread = new Thread(task, "vos-io-" + THREAD_IDS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor executor;
+    private final ArrayDeque<CompletableFuture<Runnable>> inFlight = new ArrayDeque<>();
+    private CompletableFuture<Runnable> tail = CompletableFuture.completedFuture(null);
+    private boolean scripted;
+    private int scriptedCount;
+    private int lastApplied;
+
+    public AsyncIo() {
+        this(SHARED_POOL);
+    }
+
+    AsyncIo(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues {@code task}; {@code onSuccess} or {@code onFailure} later runs on the frame thread.
+     */
+    <T> void submit(Callable<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        CompletableFuture<Runnable> completion = tail.handleAsync((previous, error) -> {
+            try {
+                T result = task.call();
+                return () -> onSuccess.accept(result);
+            } catch (Exception ex) {
+                return () -> onFailure.accept(ex);
+            }
+        }, executor);
+        tail = completion;
+        inFlight.add(completion);
+    }
+
+    /**
+     * Runs the handlers of finished requests, oldest first, and returns how many were applied.
+     */
+    int applyCompleted() {
+        int applied = 0;
+        if (scripted) {
+            for (int remaining = Math.min(scriptedCount, inFlight.size()); remaining > 0; remaining--) {
+                inFlight.poll().join().run();
+                applied++;
+            }
+            scriptedCount = 0;
+        } else {
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                inFlight.poll().join().run();
+                applied++;
+            }
+        }
+        lastApplied = applied;
+        return applied;
+    }
+
+    /**
+     * Requests submitted but not yet applied.
+     */
+    public int pending() {
+        return inFlight.size();
+    }
+
+    /**
+     * Completions applied by the most recent tick.
+     */
+    public int lastApplied() {
+        return lastApplied;
+    }
+
+    public void setScripted(boolean scripted) {
+        this.scripted = scripted;
+        this.scriptedCount = 0;
+    }
+
+    /**
+     * In scripted mode, makes the next tick apply {@code count} more completions.
+     */
+    public void script(int count) {
+        scriptedCount += count;
+    }
+}
@@ -0,0 +1,6 @@
+package com.virtualpc.os;
+
+@FunctionalInterface
+public interface ProgramLoadHook {
+    byte[] onProgramLoad(String name, byte[] image);
+}
@@ -1,17 +1,29 @@
 package com.virtualpc.os;
 
 import com.virtualpc.cpu.Cpu;
-import com.virtualpc.input.KeyboardState;
-import com.virtualpc.input.MouseState;
+import com.virtualpc.cpu.ExecutionProfiler;
+import com.virtualpc.input.InputBatch;
+import com.virtualpc.input.InputRing;
 import com.virtualpc.memory.Ram;
-import com.virtualpc.os.fs.VirtualFileSystem;
+import com.virtualpc.os.fs.GuestFileSystem;
+import com.virtualpc.os.inspectors.RomInspector;
+import com.virtualpc.os.ui.Compositor;
+import com.virtualpc.os.ui.TerminalBuffer;
+import com.virtualpc.os.ui.Widget;
 import com.virtualpc.video.FrameBuffer;
 
+import java.awt.Rectangle;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public final class VirtualOperatingSystem {
@@ -21,6 +33,10 @@ public final class VirtualOperatingSystem {
     private static final int C_WINDOW_BORDER = 4;
     private static final int C_TEXT = 5;
     private static final int C_ACCENT = 6;
+    private static final int PROFILE_REPORT_LINES = 8;
+    private static final int TERMINAL_COLUMNS = 70;
+    private static final String BOOT_LABEL = "BOOT DESKTOP";
+    private static final String IO_PENDING_LABEL = "BUSY";
 
     private final FrameBuffer frameBuffer;
     private final Ram ram;
@@ -28,8 +44,13 @@ public final class VirtualOperatingSystem {
     private final int height;
     private final int diskSizeBytes;
     private final int romBaseAddress;
-    private final VirtualFileSystem vfs;
+    private final GuestFileSystem vfs;
     private final Path binDirectory;
+    private final Compositor compositor;
+    private final DesktopLayout layout;
+    private final List<Widget> legacyScene;
+    private final List<Widget> desktopScene;
+    private final AsyncIo asyncIo = new AsyncIo();
 
     private long frameCounter;
     private byte[] romImage = new byte[0];
@@ -37,65 +58,134 @@ public final class VirtualOperatingSystem {
     private Cpu runtimeCpu;
 
     private Path currentDir;
-    private List<VirtualFileSystem.Entry> entries = new ArrayList<>();
-    private final List<String> terminalLines = new ArrayList<>();
+    private List<GuestFileSystem.Entry> entries = new ArrayList<>();
+    private final TerminalBuffer terminal = new TerminalBuffer(TerminalBuffer.DEFAULT_CAPACITY);
     private String terminalInput = "";
     private boolean terminalFocused = true;
     private int folderCounter = 1;
     private String activeProgram = "rom";
-
-    public VirtualOperatingSystem(FrameBuffer frameBuffer, Ram ram, int diskSizeBytes, int romBaseAddress) throws IOException {
+    private ProgramLoadHook programLoadHook = (name, image) -> image;
+    private ExecutionProfiler profiler;
+    private int cursorX;
+    private int cursorY;
+    private boolean cursorPressed;
+
+    public VirtualOperatingSystem(FrameBuffer frameBuffer, Ram ram, int diskSizeBytes, int romBaseAddress,
+                                  GuestFileSystem fileSystem, Path binDirectory) throws IOException {
         this.frameBuffer = frameBuffer;
         this.ram = ram;
         this.width = frameBuffer.width();
         this.height = frameBuffer.height();
         this.diskSizeBytes = diskSizeBytes;
         this.romBaseAddress = romBaseAddress;
-        this.vfs = new VirtualFileSystem(Path.of("data", "vfs"));
-        this.binDirectory = Path.of("data", "bin-programs").toAbsolutePath().normalize();
+        this.vfs = fileSystem;
+        this.binDirectory = binDirectory.toAbsolutePath().normalize();
         Files.createDirectories(binDirectory);
         this.currentDir = vfs.root();
+        this.compositor = new Compositor(frameBuffer);
+        this.layout = computeDesktopLayout();
+        this.legacyScene = buildLegacyScene();
+        this.desktopScene = buildDesktopScene();
         refreshEntries();
-        terminalLines.add("VTERM READY. TYPE HELP");
-        terminalLines.add("BIN DIR /data/bin-programs");
+        terminal.append("VTERM READY. TYPE HELP");
+        terminal.append("BIN DIR /" + binDirectory.normalize().toString().replace('\\', '/'));
     }
 
     public void setRomImage(byte[] romImage) {
         this.romImage = romImage == null ? new byte[0] : romImage.clone();
     }
 
-    public void tick(Cpu cpu, MouseState mouse, KeyboardState keyboard) {
+    public void setProgramLoadHook(ProgramLoadHook hook) {
+        this.programLoadHook = hook == null ? (name, image) -> image : hook;
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(frameCounter);
+        out.writeUTF(mode.name());
+        out.writeUTF(vfs.displayPath(currentDir));
+        terminal.saveState(out);
+        out.writeUTF(terminalInput);
+        out.writeBoolean(terminalFocused);
+        out.writeInt(cursorX);
+        out.writeInt(cursorY);
+        out.writeBoolean(cursorPressed);
+        out.writeInt(folderCounter);
+        out.writeUTF(activeProgram);
+        out.writeInt(romImage.length);
+        out.write(romImage);
+    }
+
+    public void loadState(DataInput in) throws IOException {
+        frameCounter = in.readLong();
+        mode = UiMode.valueOf(in.readUTF());
+        Path dir = vfs.resolve(vfs.root(), in.readUTF().substring(1));
+        currentDir = vfs.isDirectory(dir) ? dir : vfs.root();
+        terminal.loadState(in);
+        terminalInput = in.readUTF();
+        terminalFocused = in.readBoolean();
+        cursorX = in.readInt();
+        cursorY = in.readInt();
+        cursorPressed = in.readBoolean();
+        folderCounter = in.readInt();
+        activeProgram = in.readUTF();
+        romImage = new byte[in.readInt()];
+        in.readFully(romImage);
+        refreshEntries();
+        compositor.invalidate();
+    }
+
+    public AsyncIo asyncIo() {
+        return asyncIo;
+    }
+
+    public byte[] getRomImage() {
+        return romImage.clone();
+    }
+
+    /**
+     * Advances the UI by one frame, applying {@code input} in the order it was posted.
+     */
+    public void tick(Cpu cpu, InputBatch input) {
         frameCounter++;
         runtimeCpu = cpu;
+        asyncIo.applyCompleted();
 
-        if (mouse.pollClick()) {
-            handleClick(mouse.x(), mouse.y());
-        }
-        if (mode == UiMode.DESKTOP) {
-            handleKeyboard(keyboard);
-        }
-
-        drawBackground();
-        if (mode == UiMode.LEGACY) {
-            drawLegacyScreen(cpu);
-        } else {
-            drawDesktop(cpu);
+        for (int i = 0; i < input.size(); i++) {
+            handleInput(input, i);
         }
 
-        drawMouseCursor(mouse.x(), mouse.y(), mouse.isPressed());
+        compositor.compose(mode == UiMode.LEGACY ? legacyScene : desktopScene);
         frameBuffer.present();
     }
 
+    private void handleInput(InputBatch input, int i) {
+        switch (input.type(i)) {
+            case InputRing.MOUSE_MOVE -> {
+                cursorX = Math.max(0, Math.min(width - 1, input.x(i)));
+                cursorY = Math.max(0, Math.min(height - 1, input.y(i)));
+            }
+            case InputRing.MOUSE_PRESS -> {
+                cursorPressed = true;
+                handleClick(cursorX, cursorY);
+            }
+            case InputRing.MOUSE_RELEASE -> cursorPressed = false;
+            default -> {
+                if (mode == UiMode.DESKTOP && terminalFocused) {
+                    handleKey(input.type(i), input.character(i));
+                }
+            }
+        }
+    }
+
     private void handleClick(int mx, int my) {
         if (mode == UiMode.LEGACY) {
             if (hit(mx, my, width / 2 - 36, height / 2 - 6, 72, 14)) {
                 mode = UiMode.DESKTOP;
-                terminalLines.add("BOOTING DESKTOP OS...");
+                terminal.append("BOOTING DESKTOP OS...");
             }
             return;
         }
 
-        DesktopLayout layout = computeDesktopLayout();
         int expX = layout.explorerX;
         int expY = layout.windowY;
         int expW = layout.explorerW;
@@ -128,25 +218,27 @@ public final class VirtualOperatingSystem {
         }
     }
 
-    private void handleKeyboard(KeyboardState keyboard) {
-        if (!terminalFocused) {
-            return;
-        }
-
-        Character ch;
-        while ((ch = keyboard.pollChar()) != null) {
-            if (terminalInput.length() < 70) {
-                terminalInput += ch;
+    private void handleKey(int type, char ch) {
+        switch (type) {
+            case InputRing.CHAR -> {
+                if (ch >= 32 && ch <= 126 && terminalInput.length() < 70) {
+                    terminalInput += ch;
+                }
+            }
+            case InputRing.BACKSPACE -> {
+                if (!terminalInput.isEmpty()) {
+                    terminalInput = terminalInput.substring(0, terminalInput.length() - 1);
+                }
+            }
+            case InputRing.PAGE_UP -> terminal.scrollBy(terminalRows() - 1, terminalRows());
+            case InputRing.PAGE_DOWN -> terminal.scrollBy(-(terminalRows() - 1), terminalRows());
+            case InputRing.ENTER -> {
+                terminal.scrollToBottom();
+                executeCommand(terminalInput.trim());
+                terminalInput = "";
+            }
+            default -> {
             }
-        }
-
-        if (keyboard.pollBackspace() && !terminalInput.isEmpty()) {
-            terminalInput = terminalInput.substring(0, terminalInput.length() - 1);
-        }
-
-        if (keyboard.pollEnter()) {
-            executeCommand(terminalInput.trim());
-            terminalInput = "";
         }
     }
 
@@ -164,17 +256,21 @@ public final class VirtualOperatingSystem {
             switch (op) {
                 case "help" -> {
                     appendTerminal("help ls pwd cd mkdir touch");
-                    appendTerminal("cat clear binls runbin");
+                    appendTerminal("cat clear binls runbin prof");
+                    appendTerminal("scroll up|down|top|bottom find TEXT");
                 }
                 case "ls" -> {
-                    refreshEntries();
-                    if (entries.isEmpty()) {
-                        appendTerminal("EMPTY");
-                    } else {
-                        for (VirtualFileSystem.Entry entry : entries) {
-                            appendTerminal((entry.directory() ? "DIR " : "FIL ") + entry.name());
+                    Path dir = currentDir;
+                    submitIo(() -> vfs.list(dir), listing -> {
+                        showEntries(dir, listing);
+                        if (listing.isEmpty()) {
+                            appendTerminal("EMPTY");
+                        } else {
+                            for (GuestFileSystem.Entry entry : listing) {
+                                appendTerminal((entry.directory() ? "DIR " : "FIL ") + entry.name());
+                            }
                         }
-                    }
+                    }, null);
                 }
                 case "pwd" -> appendTerminal(vfs.displayPath(currentDir));
                 case "cd" -> {
@@ -182,31 +278,43 @@ public final class VirtualOperatingSystem {
                         appendTerminal("USAGE: cd NAME");
                     } else {
                         Path target = vfs.resolve(currentDir, parts[1]);
-                        if (Files.isDirectory(target)) {
+                        submitIo(() -> vfs.isDirectory(target) ? vfs.list(target) : null, listing -> {
+                            if (listing == null) {
+                                appendTerminal("NOT A DIR");
+                                return;
+                            }
                             currentDir = target;
-                            refreshEntries();
+                            entries = listing;
                             appendTerminal("OK " + vfs.displayPath(currentDir));
-                        } else {
-                            appendTerminal("NOT A DIR");
-                        }
+                        }, null);
                     }
                 }
                 case "mkdir" -> {
                     if (parts.length < 2) {
                         appendTerminal("USAGE: mkdir NAME");
                     } else {
-                        vfs.mkdir(currentDir, parts[1]);
-                        refreshEntries();
-                        appendTerminal("DIR CREATED");
+                        Path dir = currentDir;
+                        submitIo(() -> {
+                            vfs.mkdir(dir, parts[1]);
+                            return vfs.list(dir);
+                        }, listing -> {
+                            showEntries(dir, listing);
+                            appendTerminal("DIR CREATED");
+                        }, null);
                     }
                 }
                 case "touch" -> {
                     if (parts.length < 2) {
                         appendTerminal("USAGE: touch NAME");
                     } else {
-                        vfs.touch(currentDir, parts[1]);
-                        refreshEntries();
-                        appendTerminal("FILE CREATED");
+                        Path dir = currentDir;
+                        submitIo(() -> {
+                            vfs.touch(dir, parts[1]);
+                            return vfs.list(dir);
+                        }, listing -> {
+                            showEntries(dir, listing);
+                            appendTerminal("FILE CREATED");
+                        }, null);
                     }
                 }
                 case "cat" -> {
@@ -214,8 +322,8 @@ public final class VirtualOperatingSystem {
                         appendTerminal("USAGE: cat NAME");
                     } else {
                         Path file = vfs.resolve(currentDir, parts[1]);
-                        String text = vfs.readFile(file);
-                        appendTerminal(text.isBlank() ? "EMPTY FILE" : text.replace('\n', ' '));
+                        submitIo(() -> vfs.readFile(file),
+                                text -> appendTerminalText(text.isBlank() ? "EMPTY FILE" : text), null);
                     }
                 }
                 case "binls" -> listBinPrograms();
@@ -226,7 +334,15 @@ public final class VirtualOperatingSystem {
                         runBinProgram(parts[1]);
                     }
                 }
-                case "clear" -> terminalLines.clear();
+                case "prof" -> profileCommand(parts.length < 2 ? "top" : parts[1].toLowerCase(),
+                        parts.length < 3 ? null : parts[2]);
+                case "clear" -> terminal.clear();
+                case "scroll" -> scrollCommand(parts.length < 2 ? "up" : parts[1].toLowerCase());
+                case "find" -> {
+                    if (!terminal.find(command.substring(op.length()).trim(), terminalRows())) {
+                        appendTerminal("NO MATCH");
+                    }
+                }
                 default -> appendTerminal("UNKNOWN CMD");
             }
         } catch (Exception ex) {
@@ -234,13 +350,82 @@ public final class VirtualOperatingSystem {
         }
     }
 
-    private void listBinPrograms() throws IOException {
+    private void scrollCommand(String action) {
+        int rows = terminalRows();
+        switch (action) {
+            case "up" -> terminal.scrollBy(rows - 1, rows);
+            case "down" -> terminal.scrollBy(1 - rows, rows);
+            case "top" -> terminal.scrollToTop(rows);
+            case "bottom" -> terminal.scrollToBottom();
+            default -> appendTerminal("USAGE: scroll up|down|top|bottom");
+        }
+    }
+
+    private void profileCommand(String action, String argument) throws IOException {
+        if (runtimeCpu == null) {
+            appendTerminal("CPU NOT READY");
+            return;
+        }
+
+        switch (action) {
+            case "on" -> {
+                if (profiler == null) {
+                    profiler = new ExecutionProfiler();
+                }
+                runtimeCpu.setProfiler(profiler);
+                appendTerminal("PROFILER ON");
+            }
+            case "off" -> {
+                runtimeCpu.setProfiler(null);
+                appendTerminal("PROFILER OFF");
+            }
+            case "reset" -> {
+                if (profiler != null) {
+                    profiler.reset();
+                }
+                appendTerminal("PROFILE CLEARED");
+            }
+            case "top" -> {
+                if (profiler == null) {
+                    appendTerminal("USAGE: prof on");
+                    return;
+                }
+                appendTerminal("PROF " + profiler.totalInstructions() + " INSTR " + activeProgram);
+                for (String line : RomInspector.annotateHotSpots(romImage, romBaseAddress, profiler, PROFILE_REPORT_LINES)) {
+                    appendTerminal(line);
+                }
+            }
+            case "save" -> {
+                if (profiler == null || argument == null) {
+                    appendTerminal("USAGE: prof save NAME.csv");
+                    return;
+                }
+                StringWriter csv = new StringWriter();
+                profiler.exportCsv(csv);
+                Path dir = currentDir;
+                Path file = vfs.resolve(dir, argument);
+                submitIo(() -> {
+                    vfs.writeFile(file, csv.toString());
+                    return vfs.list(dir);
+                }, listing -> {
+                    showEntries(dir, listing);
+                    appendTerminal("PROFILE SAVED");
+                }, null);
+            }
+            default -> appendTerminal("USAGE: prof on|off|top|reset|save");
+        }
+    }
+
+    private void listBinPrograms() {
         appendTerminal("BIN PROGRAMS:");
-        try (Stream<Path> stream = Files.list(binDirectory)) {
-            List<Path> bins = stream
-                    .filter(path -> Files.isRegularFile(path) && path.getFileName().toString().toLowerCase().endsWith(".bin"))
-                    .sorted()
-                    .toList();
+        submitIo(() -> {
+            try (Stream<Path> stream = Files.list(binDirectory)) {
+                return stream
+                        .filter(path -> Files.isRegularFile(path) && path.getFileName().toString().toLowerCase().endsWith(".bin"))
+                        .sorted()
+                        .toList();
+            }
+        }, bins -> {
             if (bins.isEmpty()) {
                 appendTerminal("NO .BIN FILES");
                 return;
@@ -248,10 +433,10 @@ public final class VirtualOperatingSystem {
             for (Path bin : bins) {
                 appendTerminal(bin.getFileName().toString());
             }
-        }
+        }, null);
     }
 
-    private void runBinProgram(String programName) throws IOException {
+    private void runBinProgram(String programName) {
         if (runtimeCpu == null) {
             appendTerminal("CPU NOT READY");
             return;
@@ -264,36 +449,68 @@ public final class VirtualOperatingSystem {
             appendTerminal("INVALID BIN NAME");
             return;
         }
-        if (!Files.exists(path)) {
-            appendTerminal("BIN NOT FOUND");
-            return;
-        }
+        submitIo(() -> Files.exists(path) ? Files.readAllBytes(path) : null, binBytes -> {
+            if (binBytes == null) {
+                appendTerminal("BIN NOT FOUND");
+            } else if (binBytes.length == 0) {
+                appendTerminal("BIN EMPTY");
+            } else if (romBaseAddress + binBytes.length > ram.size()) {
+                appendTerminal("BIN TOO LARGE");
+            } else {
+                runProgramBytes(fileName, binBytes);
+            }
+        }, null);
+    }
 
-        byte[] binBytes = Files.readAllBytes(path);
-        if (binBytes.length == 0) {
-            appendTerminal("BIN EMPTY");
-            return;
-        }
-        if (romBaseAddress + binBytes.length > ram.size()) {
-            appendTerminal("BIN TOO LARGE");
-            return;
-        }
+    private List<Widget> buildLegacyScene() {
+        int bx = width / 2 - 36;
+        int by = height / 2 - 6;
+        return List.of(
+                new Background(),
+                Widget.of(new Rectangle(0, 0, width, 10), true, this::uptimeSeconds, fb -> drawTitleBar("VOS CORE")),
+                Widget.of(new Rectangle(8, 16, width - 16, height - 24), true,
+                        () -> List.of(runtimeCpu.getProgramCounter(), runtimeCpu.getRegisterA(), romImage.length),
+                        fb -> drawLegacyWindow(runtimeCpu)),
+                Widget.of(new Rectangle(bx, by, 72, 14).union(new Rectangle(bx + 7, by + 4, BOOT_LABEL.length() * 6, 7)),
+                        false, () -> Boolean.TRUE, fb -> {
+                    frameBuffer.fillRect(bx, by, 72, 14, C_ACCENT);
+                    frameBuffer.drawRect(bx, by, 72, 14, C_WINDOW_BORDER);
+                    frameBuffer.drawText(bx + 7, by + 4, BOOT_LABEL, C_TEXT);
+                }),
+                new Cursor()
+        );
+    }
 
-        runProgramBytes(fileName, binBytes);
+    private List<Widget> buildDesktopScene() {
+        int inputCols = Math.max(10, (layout.terminalW - 4) / 6);
+        return List.of(
+                new Background(),
+                Widget.of(new Rectangle(0, 0, width, 10), true, this::uptimeSeconds, fb -> drawTitleBar("DESKTOP OS")),
+                Widget.of(new Rectangle(layout.explorerX, layout.windowY, layout.explorerW, layout.windowH), true,
+                        () -> List.of(currentDir, entries), fb -> drawExplorerWindow()),
+                new TerminalWindow(),
+                Widget.of(new Rectangle(layout.terminalX + 2, layout.windowY + layout.windowH - 10, inputCols * 6, 7), false,
+                        () -> List.of(terminalInput, cursorBlinkOn(), terminalFocused), fb -> drawTerminalInput()),
+                Widget.of(new Rectangle(0, height - 12, width, 12), true,
+                        () -> List.of(runtimeCpu.getRegisterA(), activeProgram, currentDir, terminalFocused),
+                        fb -> drawFooter(runtimeCpu)),
+                new Cursor()
+        );
     }
 
-    private void drawBackground() {
-        for (int y = 0; y < height; y++) {
-            int tone = (y + (int) (frameCounter % 18)) % 18;
-            frameBuffer.fillRect(0, y, width, 1, tone < 9 ? C_BG : C_PANEL);
-        }
+    private long uptimeSeconds() {
+        return frameCounter / 60;
     }
 
-    private void drawLegacyScreen(Cpu cpu) {
-        frameBuffer.fillRect(0, 0, width, 10, C_PANEL);
-        frameBuffer.drawRect(0, 0, width, 10, C_WINDOW_BORDER);
-        drawTitleBar("VOS CORE");
+    private boolean cursorBlinkOn() {
+        return frameCounter % 30 < 15;
+    }
+
+    private int backgroundColor(int y, int phase) {
+        return (y + phase) % 18 < 9 ? C_BG : C_PANEL;
+    }
 
+    private void drawLegacyWindow(Cpu cpu) {
         frameBuffer.fillRect(8, 16, width - 16, height - 24, C_WINDOW);
         frameBuffer.drawRect(8, 16, width - 16, height - 24, C_WINDOW_BORDER);
         frameBuffer.fillRect(8, 16, width - 16, 10, C_ACCENT);
@@ -304,34 +521,9 @@ public final class VirtualOperatingSystem {
         frameBuffer.drawText(14, 48, "RAM    " + ram.size() + " B", C_TEXT);
         frameBuffer.drawText(14, 56, "DISK   " + (diskSizeBytes / 1024) + " KB", C_TEXT);
         frameBuffer.drawText(14, 64, "ROM    " + romImage.length + " B", C_TEXT);
-
-        int bx = width / 2 - 36;
-        int by = height / 2 - 6;
-        frameBuffer.fillRect(bx, by, 72, 14, C_ACCENT);
-        frameBuffer.drawRect(bx, by, 72, 14, C_WINDOW_BORDER);
-        frameBuffer.drawText(bx + 7, by + 4, "BOOT DESKTOP", C_TEXT);
-    }
-
-    private void drawDesktop(Cpu cpu) {
-        DesktopLayout layout = computeDesktopLayout();
-
-        frameBuffer.fillRect(0, 0, width, 10, C_PANEL);
-        frameBuffer.drawRect(0, 0, width, 10, C_WINDOW_BORDER);
-        drawTitleBar("DESKTOP OS");
-
-        drawExplorerWindow(layout);
-        drawTerminalWindow(layout);
-
-        frameBuffer.fillRect(0, height - 12, width, 12, C_PANEL);
-        frameBuffer.drawRect(0, height - 12, width, 12, C_WINDOW_BORDER);
-        drawFooter(cpu, layout);
-
-        if (terminalFocused) {
-            frameBuffer.drawText(layout.terminalX, height - 10, "TERM FOCUS", C_ACCENT);
-        }
     }
 
-    private void drawExplorerWindow(DesktopLayout layout) {
+    private void drawExplorerWindow() {
         int x = layout.explorerX;
         int y = layout.windowY;
         int w = layout.explorerW;
@@ -356,87 +548,94 @@ public final class VirtualOperatingSystem {
         int maxLines = Math.min(Math.max(2, (h - 24) / 8), entries.size());
         int cols = Math.max(8, (w - 4) / 6);
         for (int i = 0; i < maxLines; i++) {
-            VirtualFileSystem.Entry e = entries.get(i);
+            GuestFileSystem.Entry e = entries.get(i);
             String label = (e.directory() ? "DIR " : "FIL ") + e.name();
             frameBuffer.drawText(x + 2, lineY, fit(label, cols), C_TEXT);
             lineY += 8;
         }
     }
 
-    private void drawTerminalWindow(DesktopLayout layout) {
-        int x = layout.terminalX;
-        int y = layout.windowY;
-        int w = layout.terminalW;
-        int h = layout.windowH;
-        int textCols = Math.max(10, (w - 4) / 6);
-
-        frameBuffer.fillRect(x, y, w, h, C_WINDOW);
-        frameBuffer.drawRect(x, y, w, h, C_WINDOW_BORDER);
-        frameBuffer.fillRect(x, y, w, 10, C_ACCENT);
-        frameBuffer.drawText(x + 2, y + 2, "TERMINAL", C_TEXT);
-
-        int visible = Math.min(Math.max(3, (h - 24) / 8), terminalLines.size());
-        int start = Math.max(0, terminalLines.size() - visible);
-        int lineY = y + 14;
-        for (int i = start; i < terminalLines.size(); i++) {
-            frameBuffer.drawText(x + 2, lineY, fit(terminalLines.get(i), textCols), C_TEXT);
-            lineY += 8;
-        }
-
-        String inputLine = fit(terminalInput + (frameCounter % 30 < 15 ? "_" : ""), textCols);
-        frameBuffer.drawText(x + 2, y + h - 10, inputLine, terminalFocused ? C_ACCENT : C_TEXT);
+    private void drawTerminalInput() {
+        int textCols = Math.max(10, (layout.terminalW - 4) / 6);
+        String inputLine = fit(terminalInput + (cursorBlinkOn() ? "_" : ""), textCols);
+        frameBuffer.drawText(layout.terminalX + 2, layout.windowY + layout.windowH - 10, inputLine,
+                terminalFocused ? C_ACCENT : C_TEXT);
     }
 
     private void refreshEntries() throws IOException {
         entries = vfs.list(currentDir);
     }
 
+    /**
+     * Shows {@code listing} in the explorer if the user is still in {@code dir}.
+     */
+    private void showEntries(Path dir, List<GuestFileSystem.Entry> listing) {
+        if (dir.equals(currentDir)) {
+            entries = listing;
+        }
+    }
+
     private void createFolderQuick() {
-        try {
-            String name = "NEWF" + folderCounter++;
-            vfs.mkdir(currentDir, name);
-            refreshEntries();
+        String name = "NEWF" + folderCounter++;
+        Path dir = currentDir;
+        submitIo(() -> {
+            vfs.mkdir(dir, name);
+            return vfs.list(dir);
+        }, listing -> {
+            showEntries(dir, listing);
             appendTerminal("DIR " + name + " CREATED");
-        } catch (Exception ex) {
-            appendTerminal("MKDIR ERROR");
-        }
+        }, "MKDIR ERROR");
     }
 
     private void goParent() {
-        try {
-            Path parent = currentDir.getParent();
-            if (parent != null && parent.startsWith(vfs.root())) {
+        Path parent = currentDir.getParent();
+        if (parent != null && parent.startsWith(vfs.root())) {
+            submitIo(() -> vfs.list(parent), listing -> {
                 currentDir = parent;
-                refreshEntries();
-            }
-        } catch (Exception ex) {
-            appendTerminal("UP ERROR");
+                entries = listing;
+            }, "UP ERROR");
         }
     }
 
-    private void openEntry(VirtualFileSystem.Entry entry) {
+    private void openEntry(GuestFileSystem.Entry entry) {
         try {
             Path target = vfs.resolve(currentDir, entry.name());
             if (entry.directory()) {
-                currentDir = target;
-                refreshEntries();
-                appendTerminal("OPEN " + entry.name());
+                submitIo(() -> vfs.list(target), listing -> {
+                    currentDir = target;
+                    entries = listing;
+                    appendTerminal("OPEN " + entry.name());
+                }, "OPEN ERROR");
+            } else if (entry.name().toLowerCase().endsWith(".bin")) {
+                submitIo(() -> vfs.readBytes(target), binBytes -> runProgramBytes(entry.name(), binBytes), "OPEN ERROR");
             } else {
-                if (entry.name().toLowerCase().endsWith(".bin")) {
-                    byte[] binBytes = Files.readAllBytes(target);
-                    runProgramBytes(entry.name(), binBytes);
-                } else {
-                    String text = vfs.readFile(target);
+                submitIo(() -> vfs.readFile(target), text -> {
                     appendTerminal("FILE " + entry.name());
-                    appendTerminal(text.isBlank() ? "EMPTY" : text.replace('\n', ' '));
-                }
+                    appendTerminalText(text.isBlank() ? "EMPTY" : text);
+                }, "OPEN ERROR");
             }
         } catch (Exception ex) {
             appendTerminal("OPEN ERROR");
         }
     }
 
-    private void runProgramBytes(String displayName, byte[] binBytes) {
+    /**
+     * Runs {@code task} off the frame thread and hands its result to {@code onDone} at the start of a later tick.
+     * A failure prints {@code failure}, or the error message when it is null.
+     */
+    private <T> void submitIo(Callable<T> task, Consumer<T> onDone, String failure) {
+        Consumer<Exception> onFailure = ex -> appendTerminal(failure != null ? failure : "ERROR " + ex.getMessage());
+        asyncIo.submit(task, result -> {
+            try {
+                onDone.accept(result);
+            } catch (RuntimeException ex) {
+                onFailure.accept(ex);
+            }
+        }, onFailure);
+    }
+
+    private void runProgramBytes(String displayName, byte[] fileBytes) {
+        byte[] binBytes = programLoadHook.onProgramLoad(displayName, fileBytes);
         if (runtimeCpu == null) {
             appendTerminal("CPU NOT READY");
             return;
@@ -480,7 +679,9 @@ public final class VirtualOperatingSystem {
     }
 
     private void drawTitleBar(String title) {
-        String uptime = "UP " + (frameCounter / 60) + "S";
+        frameBuffer.fillRect(0, 0, width, 10, C_PANEL);
+        frameBuffer.drawRect(0, 0, width, 10, C_WINDOW_BORDER);
+        String uptime = "UP " + uptimeSeconds() + "S";
         int uptimePixels = uptime.length() * 6;
         int rightTextX = Math.max(3, width - uptimePixels - 3);
         int leftPixels = Math.max(6, rightTextX - 9);
@@ -490,7 +691,9 @@ public final class VirtualOperatingSystem {
         frameBuffer.drawText(rightTextX, 2, uptime, C_TEXT);
     }
 
-    private void drawFooter(Cpu cpu, DesktopLayout layout) {
+    private void drawFooter(Cpu cpu) {
+        frameBuffer.fillRect(0, height - 12, width, 12, C_PANEL);
+        frameBuffer.drawRect(0, height - 12, width, 12, C_WINDOW_BORDER);
         int y = height - 10;
         String left = "START CPU " + hex8(cpu.getRegisterA());
         String run = "RUN " + activeProgram;
@@ -508,24 +711,23 @@ public final class VirtualOperatingSystem {
             if (focusX + ("TERM".length() * 6) < pathX) {
                 frameBuffer.drawText(focusX, y, "TERM", C_ACCENT);
             }
+            frameBuffer.drawText(layout.terminalX, y, "TERM FOCUS", C_ACCENT);
         }
     }
 
     private void appendTerminal(String line) {
-        terminalLines.add(fit(line == null ? "" : line, 70));
-        while (terminalLines.size() > 50) {
-            terminalLines.remove(0);
-        }
+        terminal.append(fit(line == null ? "" : line, TERMINAL_COLUMNS));
     }
 
-    private void drawMouseCursor(int x, int y, boolean pressed) {
-        int color = pressed ? C_ACCENT : C_TEXT;
-        frameBuffer.setPixel(x, y, color);
-        frameBuffer.setPixel(x + 1, y, color);
-        frameBuffer.setPixel(x, y + 1, color);
-        frameBuffer.setPixel(x + 1, y + 1, color);
-        frameBuffer.setPixel(x + 2, y + 2, color);
-        frameBuffer.setPixel(x + 3, y + 3, color);
+    /**
+     * File contents and other multi-line output: every line is kept, wrapped at the terminal width.
+     */
+    private void appendTerminalText(String text) {
+        terminal.appendWrapped(text, TERMINAL_COLUMNS);
+    }
+
+    private int terminalRows() {
+        return Math.max(3, (layout.windowH - 24) / 8);
     }
 
     private static boolean hit(int px, int py, int x, int y, int w, int h) {
@@ -561,6 +763,171 @@ public final class VirtualOperatingSystem {
         return (char) (value < 10 ? ('0' + value) : ('A' + (value - 10)));
     }
 
+    /**
+     * The scrolling stripes behind everything; a phase step only recolors the rows crossing a stripe edge.
+     */
+    private final class Background implements Widget {
+        private final Rectangle bounds = new Rectangle(0, 0, width, height);
+
+        @Override
+        public Rectangle bounds() {
+            return bounds;
+        }
+
+        @Override
+        public Object state() {
+            return (int) (frameCounter % 18);
+        }
+
+        @Override
+        public boolean opaque() {
+            return true;
+        }
+
+        @Override
+        public void paint(FrameBuffer frameBuffer) {
+            int phase = (int) (frameCounter % 18);
+            Rectangle clip = frameBuffer.clip();
+            for (int y = clip.y; y < clip.y + clip.height; y++) {
+                frameBuffer.fillRect(clip.x, y, clip.width, 1, backgroundColor(y, phase));
+            }
+        }
+
+        @Override
+        public void damage(Object previousState, List<Rectangle> damage) {
+            int previous = (Integer) previousState;
+            int current = (int) (frameCounter % 18);
+            int runStart = -1;
+            for (int y = 0; y <= height; y++) {
+                boolean changed = y < height && backgroundColor(y, previous) != backgroundColor(y, current);
+                if (changed && runStart < 0) {
+                    runStart = y;
+                } else if (!changed && runStart >= 0) {
+                    damage.add(new Rectangle(0, runStart, width, y - runStart));
+                    runStart = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * The terminal window. Its state is the fitted text of each visible row, rebuilt only when the
+     * buffer changes, so appending or scrolling repaints just the rows whose text differs.
+     */
+    private final class TerminalWindow implements Widget {
+        private final Rectangle bounds = new Rectangle(layout.terminalX, layout.windowY, layout.terminalW, layout.windowH);
+        private long builtVersion = -1;
+        private boolean builtBusy;
+        private TerminalView view;
+
+        @Override
+        public Rectangle bounds() {
+            return bounds;
+        }
+
+        @Override
+        public Object state() {
+            boolean busy = asyncIo.pending() > 0;
+            if (view == null || builtVersion != terminal.version() || builtBusy != busy) {
+                view = buildView(busy);
+                builtVersion = terminal.version();
+                builtBusy = busy;
+            }
+            return view;
+        }
+
+        @Override
+        public boolean opaque() {
+            return true;
+        }
+
+        @Override
+        public void paint(FrameBuffer frameBuffer) {
+            TerminalView current = (TerminalView) state();
+            int x = bounds.x;
+            int y = bounds.y;
+            int w = bounds.width;
+            frameBuffer.fillRect(x, y, w, bounds.height, C_WINDOW);
+            frameBuffer.drawRect(x, y, w, bounds.height, C_WINDOW_BORDER);
+            frameBuffer.fillRect(x, y, w, 10, C_ACCENT);
+            frameBuffer.drawText(x + 2, y + 2, "TERMINAL", C_TEXT);
+            frameBuffer.drawText(x + w - 2 - current.label().length() * 6, y + 2, current.label(), C_TEXT);
+
+            Rectangle clip = frameBuffer.clip();
+            for (int row = 0; row < current.rows().size(); row++) {
+                int rowY = y + 14 + row * 8;
+                if (rowY + 7 > clip.y && rowY < clip.y + clip.height) {
+                    frameBuffer.drawText(x + 2, rowY, current.rows().get(row), row == current.matchRow() ? C_ACCENT : C_TEXT);
+                }
+            }
+        }
+
+        @Override
+        public void damage(Object previousState, List<Rectangle> damage) {
+            TerminalView previous = (TerminalView) previousState;
+            TerminalView current = view;
+            if (!previous.label().equals(current.label())) {
+                damage.add(new Rectangle(bounds.x, bounds.y, bounds.width, 10));
+            }
+            int rows = Math.max(previous.rows().size(), current.rows().size());
+            for (int row = 0; row < rows; row++) {
+                boolean highlight = (row == previous.matchRow()) != (row == current.matchRow());
+                if (highlight || !Objects.equals(rowText(previous, row), rowText(current, row))) {
+                    damage.add(new Rectangle(bounds.x + 1, bounds.y + 14 + row * 8, bounds.width - 2, 7));
+                }
+            }
+        }
+
+        private TerminalView buildView(boolean busy) {
+            int rows = terminalRows();
+            int textCols = Math.max(10, (bounds.width - 4) / 6);
+            long start = terminal.viewStart(rows);
+            long end = terminal.viewEnd(rows);
+            List<String> text = new ArrayList<>((int) (end - start));
+            for (long line = start; line < end; line++) {
+                text.add(fit(terminal.line(line), textCols));
+            }
+            int matchRow = terminal.match() >= start && terminal.match() < end ? (int) (terminal.match() - start) : -1;
+            String label = busy ? IO_PENDING_LABEL : terminal.scroll() > 0 ? "-" + terminal.scroll() : "";
+            return new TerminalView(List.copyOf(text), matchRow, label);
+        }
+
+        private static String rowText(TerminalView view, int row) {
+            return row < view.rows().size() ? view.rows().get(row) : null;
+        }
+    }
+
+    private record TerminalView(List<String> rows, int matchRow, String label) {
+    }
+
+    private final class Cursor implements Widget {
+        @Override
+        public Rectangle bounds() {
+            return new Rectangle(cursorX, cursorY, 4, 4);
+        }
+
+        @Override
+        public Object state() {
+            return cursorPressed;
+        }
+
+        @Override
+        public boolean opaque() {
+            return false;
+        }
+
+        @Override
+        public void paint(FrameBuffer frameBuffer) {
+            int color = cursorPressed ? C_ACCENT : C_TEXT;
+            frameBuffer.setPixel(cursorX, cursorY, color);
+            frameBuffer.setPixel(cursorX + 1, cursorY, color);
+            frameBuffer.setPixel(cursorX, cursorY + 1, color);
+            frameBuffer.setPixel(cursorX + 1, cursorY + 1, color);
+            frameBuffer.setPixel(cursorX + 2, cursorY + 2, color);
+            frameBuffer.setPixel(cursorX + 3, cursorY + 3, color);
+        }
+    }
+
     private enum UiMode {
         LEGACY,
         DESKTOP
@@ -0,0 +1,103 @@
+package com.virtualpc.os.fs;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sorted directory listings shared by every {@link VirtualFileSystem} in the process, keyed by absolute path.
+ * <p>
+ * A listing is dropped when a VFS mutates that directory or when the host {@link WatchService} reports a
+ * change in it. Watch events are polled on each lookup, so no thread is needed. Without a watch service
+ * every lookup scans the host directory.
+ */
+final class DirectoryIndex {
+    private static final Comparator<GuestFileSystem.Entry> ORDER = Comparator.comparing(entry -> entry.name().toUpperCase());
+    private static final DirectoryIndex SHARED = new DirectoryIndex(openWatchService());
+
+    private final WatchService watcher;
+    private final Map<Path, List<GuestFileSystem.Entry>> listings = new ConcurrentHashMap<>();
+
+    private DirectoryIndex(WatchService watcher) {
+        this.watcher = watcher;
+    }
+
+    static DirectoryIndex shared() {
+        return SHARED;
+    }
+
+    List<GuestFileSystem.Entry> list(Path directory) throws IOException {
+        if (watcher == null) {
+            return scan(directory);
+        }
+
+        drainEvents();
+        List<GuestFileSystem.Entry> cached = listings.get(directory);
+        if (cached != null) {
+            return cached;
+        }
+        // Registering before the scan means any change the scan misses is still reported.
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        List<GuestFileSystem.Entry> entries = scan(directory);
+        listings.put(directory, entries);
+        return entries;
+    }
+
+    void invalidate(Path directory) {
+        listings.remove(directory);
+    }
+
+    private void drainEvents() {
+        try {
+            WatchKey key;
+            while ((key = watcher.poll()) != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        listings.clear();
+                    }
+                }
+                listings.remove((Path) key.watchable());
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            listings.clear();
+        }
+    }
+
+    private static List<GuestFileSystem.Entry> scan(Path directory) throws IOException {
+        List<GuestFileSystem.Entry> entries = new ArrayList<>();
+        try (var stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                entries.add(new GuestFileSystem.Entry(
+                        path.getFileName().toString(),
+                        attributes.isDirectory(),
+                        attributes.isDirectory() ? 0 : attributes.size(),
+                        attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        entries.sort(ORDER);
+        return List.copyOf(entries);
+    }
+
+    private static WatchService openWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            return null;
+        }
+    }
+}
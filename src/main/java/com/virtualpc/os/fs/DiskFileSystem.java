@@ -0,0 +1,515 @@
+package com.virtualpc.os.fs;
+
+import com.virtualpc.storage.BlockDevice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link GuestFileSystem} stored inside a {@link BlockDevice}, so a whole guest tree is one image file.
+ * <p>
+ * Layout in {@link #BLOCK_SIZE}-byte blocks: a superblock, the allocation bitmap (one bit per block),
+ * the inode table ({@value #INODE_BYTES} bytes per inode: type, extent count, size, mtime and up to
+ * {@value #MAX_EXTENTS} extents of contiguous blocks), then data. A directory's data is its list of
+ * (inode, name) links. Inode 0 is the root. A device whose superblock is all zero is formatted and seeded
+ * on mount; any other unrecognised superblock is refused so existing data is never overwritten.
+ * <p>
+ * Metadata stays cached in memory after mount; every mutation writes through and flushes the device.
+ */
+public final class DiskFileSystem implements GuestFileSystem {
+    public static final int BLOCK_SIZE = BlockDevice.SECTOR_SIZE;
+
+    private static final int MAGIC = 0x5650_4653;
+    private static final int VERSION = 1;
+    private static final int INODE_BYTES = 64;
+    private static final int INODES_PER_BLOCK = BLOCK_SIZE / INODE_BYTES;
+    private static final int MAX_EXTENTS = 5;
+    private static final int BITS_PER_BLOCK = BLOCK_SIZE * 8;
+    private static final int MIN_BLOCKS = 64;
+    private static final int ROOT_INODE = 0;
+    private static final int FREE = 0;
+    private static final int FILE = 1;
+    private static final int DIRECTORY = 2;
+    private static final Comparator<Link> ORDER = Comparator.comparing(link -> link.name().toUpperCase());
+
+    private final BlockDevice device;
+    private final Path root = Path.of("/").toAbsolutePath();
+    private final int blockCount;
+    private final int bitmapStart;
+    private final int inodeStart;
+    private final int dataStart;
+    private final BitSet used;
+    private final Inode[] inodes;
+    private final Map<Integer, List<Link>> directories = new HashMap<>();
+    private int dirtyBitmapFrom = Integer.MAX_VALUE;
+    private int dirtyBitmapTo = -1;
+
+    public DiskFileSystem(BlockDevice device) throws IOException {
+        this.device = device;
+        if (device.sectorCount() < MIN_BLOCKS || device.sectorCount() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Disk size unsupported for a file system: " + device.sectorCount() + " sectors");
+        }
+        this.blockCount = (int) device.sectorCount();
+
+        ByteBuffer superblock = readBlock(0);
+        boolean formatted = superblock.getInt() == MAGIC;
+        if (formatted && (superblock.getInt() != VERSION || superblock.getInt() != blockCount)) {
+            throw new IOException("File system on disk does not match a " + blockCount + "-block device");
+        }
+        if (!formatted && !isBlank(superblock)) {
+            throw new IOException("Disk holds data that is not a virtual PC file system; refusing to format it");
+        }
+
+        int bitmapBlocks = (blockCount + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK;
+        int inodeBlocks = Math.max(1, blockCount / 128);
+        this.bitmapStart = 1;
+        this.inodeStart = bitmapStart + bitmapBlocks;
+        this.dataStart = inodeStart + inodeBlocks;
+        this.inodes = new Inode[inodeBlocks * INODES_PER_BLOCK];
+        this.used = new BitSet(blockCount);
+        if (formatted) {
+            mount(bitmapBlocks, inodeBlocks);
+        } else {
+            format(bitmapBlocks, inodeBlocks);
+        }
+    }
+
+    @Override
+    public Path root() {
+        return root;
+    }
+
+    @Override
+    public synchronized List<Entry> list(Path directory) throws IOException {
+        List<Link> links = directory(lookup(directory), directory);
+        List<Entry> entries = new ArrayList<>(links.size());
+        for (Link link : links) {
+            Inode inode = inodes[link.inode()];
+            entries.add(new Entry(link.name(), inode.type == DIRECTORY,
+                    inode.type == DIRECTORY ? 0 : inode.size, inode.modifiedMillis));
+        }
+        return List.copyOf(entries);
+    }
+
+    @Override
+    public synchronized boolean isDirectory(Path path) {
+        try {
+            return inodes[lookup(path)].type == DIRECTORY;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized Path mkdir(Path directory, String name) throws IOException {
+        String clean = VirtualFileSystem.sanitizeName(name);
+        Path created = sanitize(directory).resolve(clean);
+        int parent = lookup(directory);
+        Link existing = find(directory(parent, directory), clean);
+        if (existing != null) {
+            if (inodes[existing.inode()].type != DIRECTORY) {
+                throw new FileAlreadyExistsException(displayPath(created));
+            }
+            return created;
+        }
+        int inode = allocateInode(DIRECTORY);
+        directories.put(inode, new ArrayList<>());
+        link(parent, new Link(clean, inode));
+        device.flush();
+        return created;
+    }
+
+    @Override
+    public synchronized Path touch(Path directory, String name) throws IOException {
+        String clean = VirtualFileSystem.sanitizeName(name);
+        Path file = sanitize(directory).resolve(clean);
+        int parent = lookup(directory);
+        if (find(directory(parent, directory), clean) == null) {
+            link(parent, new Link(clean, allocateInode(FILE)));
+            device.flush();
+        }
+        return file;
+    }
+
+    @Override
+    public String readFile(Path file) throws IOException {
+        return new String(readBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized byte[] readBytes(Path file) throws IOException {
+        Inode inode = inodes[lookup(file)];
+        if (inode.type == DIRECTORY) {
+            throw new IOException("Is a directory");
+        }
+        return readData(inode);
+    }
+
+    @Override
+    public synchronized void writeFile(Path file, String content) throws IOException {
+        Path target = sanitize(file);
+        if (target.equals(root)) {
+            throw new IOException("Is a directory");
+        }
+        Path parentPath = target.getParent();
+        String name = VirtualFileSystem.sanitizeName(target.getFileName().toString());
+        int parent = lookup(parentPath);
+        Link link = find(directory(parent, parentPath), name);
+        if (link != null && inodes[link.inode()].type == DIRECTORY) {
+            throw new IOException("Is a directory");
+        }
+        if (link != null) {
+            writeData(link.inode(), content.getBytes(StandardCharsets.UTF_8));
+        } else {
+            int inode = allocateInode(FILE);
+            try {
+                writeData(inode, content.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                inodes[inode] = new Inode();
+                writeInode(inode);
+                throw ex;
+            }
+            link(parent, new Link(name, inode));
+        }
+        device.flush();
+    }
+
+    @Override
+    public Path resolve(Path base, String target) {
+        Path resolved = target == null || target.isBlank()
+                ? sanitize(base)
+                : sanitize(base).resolve(target.trim()).normalize();
+        enforceInsideRoot(resolved);
+        return resolved;
+    }
+
+    @Override
+    public String displayPath(Path path) {
+        String p = root.relativize(sanitize(path)).toString().replace('\\', '/');
+        return p.isEmpty() ? "/" : "/" + p;
+    }
+
+    public synchronized int freeBlocks() {
+        return blockCount - used.cardinality();
+    }
+
+    private int lookup(Path path) throws IOException {
+        Path target = sanitize(path);
+        int inode = ROOT_INODE;
+        Path walked = root;
+        for (Path name : root.relativize(target)) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            Link link = find(directory(inode, walked), name.toString());
+            walked = walked.resolve(name);
+            if (link == null) {
+                throw new NoSuchFileException(displayPath(walked));
+            }
+            inode = link.inode();
+        }
+        return inode;
+    }
+
+    /**
+     * The links of directory {@code inode}, parsed once and then kept sorted in memory.
+     */
+    private List<Link> directory(int inode, Path path) throws IOException {
+        List<Link> links = directories.get(inode);
+        if (links != null) {
+            return links;
+        }
+        if (inodes[inode].type != DIRECTORY) {
+            throw new IOException("Not a directory: " + displayPath(path));
+        }
+        ByteBuffer data = ByteBuffer.wrap(readData(inodes[inode]));
+        links = new ArrayList<>();
+        while (data.hasRemaining()) {
+            int child = data.getInt();
+            byte[] name = new byte[data.getShort() & 0xFFFF];
+            data.get(name);
+            links.add(new Link(new String(name, StandardCharsets.UTF_8), child));
+        }
+        links.sort(ORDER);
+        directories.put(inode, links);
+        return links;
+    }
+
+    private static Link find(List<Link> links, String name) {
+        for (Link link : links) {
+            if (link.name().equals(name)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private void link(int parent, Link link) throws IOException {
+        List<Link> links = directories.get(parent);
+        links.add(link);
+        links.sort(ORDER);
+
+        int bytes = 0;
+        for (Link entry : links) {
+            bytes += 6 + entry.name().getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer data = ByteBuffer.allocate(bytes);
+        for (Link entry : links) {
+            byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+            data.putInt(entry.inode()).putShort((short) name.length).put(name);
+        }
+        writeData(parent, data.array());
+    }
+
+    private int allocateInode(int type) throws IOException {
+        for (int index = ROOT_INODE + 1; index < inodes.length; index++) {
+            if (inodes[index].type == FREE) {
+                Inode inode = new Inode();
+                inode.type = type;
+                inode.modifiedMillis = System.currentTimeMillis();
+                inodes[index] = inode;
+                writeInode(index);
+                return index;
+            }
+        }
+        throw new IOException("No free inodes");
+    }
+
+    private byte[] readData(Inode inode) throws IOException {
+        int blocks = 0;
+        for (int extent = 0; extent < inode.extentCount; extent++) {
+            blocks += inode.lengths[extent];
+        }
+        byte[] data = new byte[blocks * BLOCK_SIZE];
+        int position = 0;
+        for (int extent = 0; extent < inode.extentCount; extent++) {
+            int length = inode.lengths[extent] * BLOCK_SIZE;
+            device.read(inode.starts[extent], ByteBuffer.wrap(data, position, length));
+            position += length;
+        }
+        return data.length == inode.size ? data : Arrays.copyOf(data, (int) inode.size);
+    }
+
+    /**
+     * Replaces the contents of {@code index}. The old extents are released first, so a rewrite of
+     * similar size usually lands back in the same blocks; on failure they are reclaimed untouched.
+     */
+    private void writeData(int index, byte[] content) throws IOException {
+        Inode inode = inodes[index];
+        for (int extent = 0; extent < inode.extentCount; extent++) {
+            setUsed(inode.starts[extent], inode.lengths[extent], false);
+        }
+        int needed = (content.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] starts = new int[MAX_EXTENTS];
+        int[] lengths = new int[MAX_EXTENTS];
+        int extents;
+        try {
+            extents = allocate(needed, starts, lengths);
+        } catch (IOException ex) {
+            for (int extent = 0; extent < inode.extentCount; extent++) {
+                setUsed(inode.starts[extent], inode.lengths[extent], true);
+            }
+            throw ex;
+        }
+
+        byte[] padded = content.length == needed * BLOCK_SIZE ? content : Arrays.copyOf(content, needed * BLOCK_SIZE);
+        int position = 0;
+        for (int extent = 0; extent < extents; extent++) {
+            int length = lengths[extent] * BLOCK_SIZE;
+            device.write(starts[extent], ByteBuffer.wrap(padded, position, length));
+            position += length;
+        }
+        inode.starts = starts;
+        inode.lengths = lengths;
+        inode.extentCount = extents;
+        inode.size = content.length;
+        inode.modifiedMillis = System.currentTimeMillis();
+        writeBitmap();
+        writeInode(index);
+    }
+
+    /**
+     * Marks {@code needed} free blocks used, preferring one contiguous run and otherwise taking free runs
+     * in disk order. Returns the number of extents filled in.
+     */
+    private int allocate(int needed, int[] starts, int[] lengths) throws IOException {
+        if (needed == 0) {
+            return 0;
+        }
+        if (blockCount - used.cardinality() < needed) {
+            throw new IOException("Disk full");
+        }
+        for (int start = used.nextClearBit(dataStart); start < blockCount; ) {
+            int end = runEnd(start);
+            if (end - start >= needed) {
+                starts[0] = start;
+                lengths[0] = needed;
+                setUsed(start, needed, true);
+                return 1;
+            }
+            start = used.nextClearBit(end);
+        }
+
+        int extents = 0;
+        int remaining = needed;
+        for (int start = used.nextClearBit(dataStart); remaining > 0; start = used.nextClearBit(start)) {
+            if (extents == MAX_EXTENTS) {
+                for (int extent = 0; extent < extents; extent++) {
+                    setUsed(starts[extent], lengths[extent], false);
+                }
+                throw new IOException("Disk too fragmented for a " + needed + "-block file");
+            }
+            int length = Math.min(remaining, runEnd(start) - start);
+            starts[extents] = start;
+            lengths[extents++] = length;
+            setUsed(start, length, true);
+            remaining -= length;
+        }
+        return extents;
+    }
+
+    private int runEnd(int start) {
+        int next = used.nextSetBit(start);
+        return next < 0 ? blockCount : next;
+    }
+
+    private void setUsed(int start, int length, boolean value) {
+        used.set(start, start + length, value);
+        dirtyBitmapFrom = Math.min(dirtyBitmapFrom, start / BITS_PER_BLOCK);
+        dirtyBitmapTo = Math.max(dirtyBitmapTo, (start + length - 1) / BITS_PER_BLOCK);
+    }
+
+    private void writeBitmap() throws IOException {
+        for (int block = dirtyBitmapFrom; block <= dirtyBitmapTo; block++) {
+            byte[] bits = used.get(block * BITS_PER_BLOCK, (block + 1) * BITS_PER_BLOCK).toByteArray();
+            device.write(bitmapStart + block, ByteBuffer.wrap(Arrays.copyOf(bits, BLOCK_SIZE)));
+        }
+        dirtyBitmapFrom = Integer.MAX_VALUE;
+        dirtyBitmapTo = -1;
+    }
+
+    private void writeInode(int index) throws IOException {
+        int block = index / INODES_PER_BLOCK;
+        ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE);
+        for (int slot = block * INODES_PER_BLOCK; slot < (block + 1) * INODES_PER_BLOCK; slot++) {
+            Inode inode = inodes[slot];
+            data.position((slot - block * INODES_PER_BLOCK) * INODE_BYTES);
+            data.putInt(inode.type).putInt(inode.extentCount).putLong(inode.size).putLong(inode.modifiedMillis);
+            for (int extent = 0; extent < inode.extentCount; extent++) {
+                data.putInt(inode.starts[extent]).putInt(inode.lengths[extent]);
+            }
+        }
+        data.clear();
+        device.write(inodeStart + block, data);
+    }
+
+    private void mount(int bitmapBlocks, int inodeBlocks) throws IOException {
+        for (int block = 0; block < bitmapBlocks; block++) {
+            BitSet bits = BitSet.valueOf(readBlock(bitmapStart + block));
+            for (int bit = bits.nextSetBit(0); bit >= 0 && block * BITS_PER_BLOCK + bit < blockCount; bit = bits.nextSetBit(bit + 1)) {
+                used.set(block * BITS_PER_BLOCK + bit);
+            }
+        }
+        for (int block = 0; block < inodeBlocks; block++) {
+            ByteBuffer data = readBlock(inodeStart + block);
+            for (int slot = 0; slot < INODES_PER_BLOCK; slot++) {
+                data.position(slot * INODE_BYTES);
+                Inode inode = new Inode();
+                inode.type = data.getInt();
+                inode.extentCount = data.getInt();
+                inode.size = data.getLong();
+                inode.modifiedMillis = data.getLong();
+                if (inode.extentCount < 0 || inode.extentCount > MAX_EXTENTS) {
+                    throw new IOException("Corrupt inode " + (block * INODES_PER_BLOCK + slot));
+                }
+                for (int extent = 0; extent < inode.extentCount; extent++) {
+                    inode.starts[extent] = data.getInt();
+                    inode.lengths[extent] = data.getInt();
+                }
+                inodes[block * INODES_PER_BLOCK + slot] = inode;
+            }
+        }
+        if (inodes[ROOT_INODE].type != DIRECTORY) {
+            throw new IOException("File system has no root directory");
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer block) {
+        for (int i = 0; i < block.limit(); i++) {
+            if (block.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void format(int bitmapBlocks, int inodeBlocks) throws IOException {
+        ByteBuffer superblock = ByteBuffer.allocate(BLOCK_SIZE);
+        superblock.putInt(MAGIC).putInt(VERSION).putInt(blockCount)
+                .putInt(bitmapStart).putInt(bitmapBlocks).putInt(inodeStart).putInt(inodeBlocks).putInt(dataStart)
+                .clear();
+        device.write(0, superblock);
+
+        for (int index = 0; index < inodes.length; index++) {
+            inodes[index] = new Inode();
+        }
+        for (int block = 0; block < inodeBlocks; block++) {
+            writeInode(block * INODES_PER_BLOCK);
+        }
+        setUsed(0, dataStart, true);
+        dirtyBitmapFrom = 0;
+        dirtyBitmapTo = bitmapBlocks - 1;
+        writeBitmap();
+
+        inodes[ROOT_INODE].type = DIRECTORY;
+        inodes[ROOT_INODE].modifiedMillis = System.currentTimeMillis();
+        writeInode(ROOT_INODE);
+        directories.put(ROOT_INODE, new ArrayList<>());
+
+        Path desktop = mkdir(root, "Desktop");
+        mkdir(root, "Documents");
+        writeFile(desktop.resolve("WELCOME.TXT"), WELCOME_TEXT);
+        device.flush();
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE);
+        device.read(block, data);
+        return data.clear();
+    }
+
+    private Path sanitize(Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+        enforceInsideRoot(normalized);
+        return normalized;
+    }
+
+    private void enforceInsideRoot(Path path) {
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Path escapes virtual root");
+        }
+    }
+
+    private record Link(String name, int inode) {
+    }
+
+    private static final class Inode {
+        private int type = FREE;
+        private int extentCount;
+        private long size;
+        private long modifiedMillis;
+        private int[] starts = new int[MAX_EXTENTS];
+        private int[] lengths = new int[MAX_EXTENTS];
+    }
+}
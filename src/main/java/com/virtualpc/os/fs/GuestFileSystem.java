@@ -0,0 +1,42 @@
+package com.virtualpc.os.fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The file tree the desktop OS shows to the guest. Paths are absolute and must stay under {@link #root()};
+ * names are single path components.
+ */
+public interface GuestFileSystem {
+    String WELCOME_TEXT = "Welcome to VOS Desktop.\nUse terminal commands: help, ls, cd, mkdir, touch, cat, clear.\n";
+
+    Path root();
+
+    /**
+     * The directory's entries sorted by upper-cased name. The returned list is immutable.
+     */
+    List<Entry> list(Path directory) throws IOException;
+
+    boolean isDirectory(Path path);
+
+    Path mkdir(Path directory, String name) throws IOException;
+
+    Path touch(Path directory, String name) throws IOException;
+
+    String readFile(Path file) throws IOException;
+
+    byte[] readBytes(Path file) throws IOException;
+
+    void writeFile(Path file, String content) throws IOException;
+
+    Path resolve(Path base, String target);
+
+    String displayPath(Path path);
+
+    /**
+     * A directory entry; {@code size} is 0 for directories.
+     */
+    record Entry(String name, boolean directory, long size, long modifiedMillis) {
+    }
+}
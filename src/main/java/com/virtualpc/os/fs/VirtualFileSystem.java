@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
-public final class VirtualFileSystem {
+/**
+ * A {@link GuestFileSystem} kept as plain host files under a root directory.
+ */
+public final class VirtualFileSystem implements GuestFileSystem {
     private final Path root;
+    private final DirectoryIndex index = DirectoryIndex.shared();
 
     public VirtualFileSystem(Path root) throws IOException {
         this.root = root.toAbsolutePath().normalize();
@@ -17,56 +19,92 @@ public final class VirtualFileSystem {
         seedDefaultContent();
     }
 
+    @Override
     public Path root() {
         return root;
     }
 
+    /**
+     * Served from the shared index when it is still current.
+     */
+    @Override
     public List<Entry> list(Path directory) throws IOException {
-        Path dir = sanitize(directory);
-        List<Entry> entries = new ArrayList<>();
+        return index.list(sanitize(directory));
+    }
 
-        try (var stream = Files.list(dir)) {
-            stream.sorted(Comparator.comparing(path -> path.getFileName().toString().toUpperCase()))
-                    .forEach(path -> entries.add(new Entry(path.getFileName().toString(), Files.isDirectory(path))));
+    /**
+     * Answers from the parent's cached listing and only asks the host for names it does not contain.
+     */
+    @Override
+    public boolean isDirectory(Path path) {
+        Path target = sanitize(path);
+        if (target.equals(root)) {
+            return true;
         }
-
-        return entries;
+        try {
+            String name = target.getFileName().toString();
+            for (Entry entry : list(target.getParent())) {
+                if (entry.name().equals(name)) {
+                    return entry.directory();
+                }
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        return Files.isDirectory(target);
     }
 
+    @Override
     public Path mkdir(Path directory, String name) throws IOException {
         String clean = sanitizeName(name);
         Path created = sanitize(directory).resolve(clean).normalize();
         enforceInsideRoot(created);
         Files.createDirectories(created);
+        index.invalidate(created.getParent());
         return created;
     }
 
+    @Override
     public Path touch(Path directory, String name) throws IOException {
         String clean = sanitizeName(name);
         Path file = sanitize(directory).resolve(clean).normalize();
         enforceInsideRoot(file);
         if (!Files.exists(file)) {
             Files.writeString(file, "", StandardCharsets.UTF_8);
+            index.invalidate(file.getParent());
         }
         return file;
     }
 
+    @Override
     public String readFile(Path file) throws IOException {
         Path f = sanitize(file);
-        if (Files.isDirectory(f)) {
+        if (isDirectory(f)) {
             throw new IOException("Is a directory");
         }
         return Files.readString(f, StandardCharsets.UTF_8);
     }
 
+    @Override
+    public byte[] readBytes(Path file) throws IOException {
+        Path f = sanitize(file);
+        if (isDirectory(f)) {
+            throw new IOException("Is a directory");
+        }
+        return Files.readAllBytes(f);
+    }
+
+    @Override
     public void writeFile(Path file, String content) throws IOException {
         Path f = sanitize(file);
-        if (Files.isDirectory(f)) {
+        if (isDirectory(f)) {
             throw new IOException("Is a directory");
         }
         Files.writeString(f, content, StandardCharsets.UTF_8);
+        index.invalidate(f.getParent());
     }
 
+    @Override
     public Path resolve(Path base, String target) {
         Path resolved;
         if (target == null || target.isBlank()) {
@@ -78,6 +116,7 @@ public final class VirtualFileSystem {
         return resolved;
     }
 
+    @Override
     public String displayPath(Path path) {
         Path normalized = sanitize(path);
         Path relative = root.relativize(normalized);
@@ -97,7 +136,7 @@ public final class VirtualFileSystem {
         }
     }
 
-    private static String sanitizeName(String name) {
+    static String sanitizeName(String name) {
         if (name == null) {
             throw new IllegalArgumentException("Name is required");
         }
@@ -116,12 +155,7 @@ public final class VirtualFileSystem {
 
         Path readme = desktop.resolve("WELCOME.TXT");
         if (!Files.exists(readme)) {
-            Files.writeString(readme,
-                    "Welcome to VOS Desktop.\nUse terminal commands: help, ls, cd, mkdir, touch, cat, clear.\n",
-                    StandardCharsets.UTF_8);
+            Files.writeString(readme, WELCOME_TEXT, StandardCharsets.UTF_8);
         }
     }
-
-    public record Entry(String name, boolean directory) {
-    }
-}
\ No newline at end of file
+}
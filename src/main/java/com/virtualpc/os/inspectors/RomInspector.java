@@ -1,8 +1,10 @@
 package com.virtualpc.os.inspectors;
 
+import com.virtualpc.cpu.ExecutionProfiler;
 import com.virtualpc.cpu.InstructionSet;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 public final class RomInspector {
@@ -34,6 +36,51 @@ public final class RomInspector {
         return lines.toArray(new String[0]);
     }
 
+    /**
+     * Disassembles the ROM and returns its most executed instructions, hottest first,
+     * each annotated with its execution count, share of all instructions and JZ outcomes.
+     */
+    public static String[] annotateHotSpots(byte[] rom, int baseAddress, ExecutionProfiler profiler, int lineCount) {
+        if (rom == null || rom.length == 0) {
+            return new String[]{"NO ROM LOADED"};
+        }
+        long total = profiler.totalInstructions();
+        if (total == 0) {
+            return new String[]{"NO SAMPLES"};
+        }
+
+        List<HotInstruction> hot = new ArrayList<>();
+        int pc = 0;
+        while (pc < rom.length) {
+            DecodedInstruction ins = decodeAt(rom, pc, baseAddress);
+            int address = (baseAddress + pc) & 0xFFFF;
+            long count = profiler.executions(address);
+            if (count > 0) {
+                hot.add(new HotInstruction(address, count, ins.text));
+            }
+            pc += ins.size;
+        }
+        if (hot.isEmpty()) {
+            return new String[]{"NO SAMPLES IN ROM"};
+        }
+
+        return hot.stream()
+                .sorted(Comparator.comparingLong(HotInstruction::count).reversed())
+                .limit(lineCount)
+                .map(h -> annotate(h, total, profiler))
+                .toArray(String[]::new);
+    }
+
+    private static String annotate(HotInstruction hot, long total, ExecutionProfiler profiler) {
+        String line = String.format("%5.1f%% %-14s %d", hot.count * 100.0 / total, hot.text, hot.count);
+        long taken = profiler.branchTaken(hot.address);
+        long notTaken = profiler.branchNotTaken(hot.address);
+        if (taken + notTaken > 0) {
+            line += " T" + taken + "/N" + notTaken;
+        }
+        return line;
+    }
+
     private static DecodedInstruction decodeAt(byte[] rom, int offset, int baseAddress) {
         int opcode = rom[offset] & 0xFF;
         int addr = (baseAddress + offset) & 0xFFFF;
@@ -68,6 +115,32 @@ public final class RomInspector {
                 int target = readWord(rom, offset + 1);
                 yield new DecodedInstruction(3, hex16(addr) + " JZ " + hex16(target));
             }
+            case InstructionSet.WAIT -> new DecodedInstruction(1, hex16(addr) + " WAIT");
+            case InstructionSet.EI -> new DecodedInstruction(1, hex16(addr) + " EI");
+            case InstructionSet.DI -> new DecodedInstruction(1, hex16(addr) + " DI");
+            case InstructionSet.RTI -> new DecodedInstruction(1, hex16(addr) + " RTI");
+            case InstructionSet.LDX -> {
+                int value = readWord(rom, offset + 1);
+                yield new DecodedInstruction(3, hex16(addr) + " LDX #" + hex16(value));
+            }
+            case InstructionSet.LDY -> {
+                int value = readWord(rom, offset + 1);
+                yield new DecodedInstruction(3, hex16(addr) + " LDY #" + hex16(value));
+            }
+            case InstructionSet.FILL -> {
+                int length = readWord(rom, offset + 1);
+                yield new DecodedInstruction(3, hex16(addr) + " FILL " + hex16(length));
+            }
+            case InstructionSet.COPY -> {
+                int length = readWord(rom, offset + 1);
+                yield new DecodedInstruction(3, hex16(addr) + " COPY " + hex16(length));
+            }
+            case InstructionSet.RECT -> {
+                int width = readByte(rom, offset + 1);
+                int height = readByte(rom, offset + 2);
+                int stride = readWord(rom, offset + 3);
+                yield new DecodedInstruction(5, hex16(addr) + " RECT " + hex8(width) + "," + hex8(height) + "," + hex16(stride));
+            }
             case InstructionSet.HALT -> new DecodedInstruction(1, hex16(addr) + " HALT");
             default -> new DecodedInstruction(1, hex16(addr) + " DB " + hex8(opcode));
         };
@@ -102,4 +175,7 @@ public final class RomInspector {
 
     private record DecodedInstruction(int size, String text) {
     }
+
+    private record HotInstruction(int address, long count, String text) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package com.virtualpc.os.ui;
+
+import com.virtualpc.video.FrameBuffer;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Paints a back-to-front list of {@link Widget}s into a {@link FrameBuffer}, redrawing only damage.
+ * <p>
+ * Each frame a widget whose state or bounds changed contributes its damage, minus whatever opaque
+ * widgets above it cover. Every damaged rectangle is then repainted under a clip, starting from the
+ * topmost opaque widget that contains it, so unchanged pixels are never touched.
+ */
+public final class Compositor {
+    private final FrameBuffer frameBuffer;
+    private final Rectangle screen;
+    private List<Widget> scene = List.of();
+    private Object[] paintedStates = new Object[0];
+    private Rectangle[] paintedBounds = new Rectangle[0];
+    private boolean invalid = true;
+
+    public Compositor(FrameBuffer frameBuffer) {
+        this.frameBuffer = frameBuffer;
+        this.screen = new Rectangle(0, 0, frameBuffer.width(), frameBuffer.height());
+    }
+
+    /**
+     * Forces the next {@link #compose} to repaint the whole screen.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * Brings the back buffer up to date with {@code widgets}; a different scene list repaints everything.
+     */
+    public void compose(List<Widget> widgets) {
+        if (widgets != scene) {
+            scene = widgets;
+            paintedStates = new Object[widgets.size()];
+            paintedBounds = new Rectangle[widgets.size()];
+            invalid = true;
+        }
+
+        List<Rectangle> damage = new ArrayList<>();
+        List<Rectangle> changed = new ArrayList<>();
+        for (int i = 0; i < scene.size(); i++) {
+            Widget widget = scene.get(i);
+            Object state = widget.state();
+            Rectangle bounds = widget.bounds();
+            if (invalid) {
+                paintedStates[i] = state;
+                paintedBounds[i] = bounds;
+                continue;
+            }
+            if (bounds.equals(paintedBounds[i]) && Objects.equals(state, paintedStates[i])) {
+                continue;
+            }
+
+            changed.clear();
+            if (bounds.equals(paintedBounds[i])) {
+                widget.damage(paintedStates[i], changed);
+            } else {
+                changed.add(paintedBounds[i]);
+                changed.add(bounds);
+            }
+            paintedStates[i] = state;
+            paintedBounds[i] = bounds;
+            for (Rectangle area : changed) {
+                addVisible(area.intersection(screen), i + 1, damage);
+            }
+        }
+        if (invalid) {
+            damage.add(screen);
+            invalid = false;
+        }
+
+        for (Rectangle area : damage) {
+            repaint(area);
+        }
+    }
+
+    private void addVisible(Rectangle area, int above, List<Rectangle> damage) {
+        if (area.isEmpty()) {
+            return;
+        }
+        for (int i = above; i < scene.size(); i++) {
+            Widget cover = scene.get(i);
+            if (!cover.opaque()) {
+                continue;
+            }
+            Rectangle hidden = area.intersection(cover.bounds());
+            if (hidden.isEmpty()) {
+                continue;
+            }
+            int right = area.x + area.width;
+            int bottom = area.y + area.height;
+            int hiddenRight = hidden.x + hidden.width;
+            int hiddenBottom = hidden.y + hidden.height;
+            addVisible(new Rectangle(area.x, area.y, area.width, hidden.y - area.y), i + 1, damage);
+            addVisible(new Rectangle(area.x, hiddenBottom, area.width, bottom - hiddenBottom), i + 1, damage);
+            addVisible(new Rectangle(area.x, hidden.y, hidden.x - area.x, hidden.height), i + 1, damage);
+            addVisible(new Rectangle(hiddenRight, hidden.y, right - hiddenRight, hidden.height), i + 1, damage);
+            return;
+        }
+        for (Rectangle existing : damage) {
+            if (existing.contains(area)) {
+                return;
+            }
+        }
+        damage.add(area);
+    }
+
+    private void repaint(Rectangle area) {
+        int first = 0;
+        for (int i = scene.size() - 1; i > 0; i--) {
+            Widget widget = scene.get(i);
+            if (widget.opaque() && widget.bounds().contains(area)) {
+                first = i;
+                break;
+            }
+        }
+
+        frameBuffer.setClip(area);
+        try {
+            for (int i = first; i < scene.size(); i++) {
+                Widget widget = scene.get(i);
+                if (widget.bounds().intersects(area)) {
+                    widget.paint(frameBuffer);
+                }
+            }
+        } finally {
+            frameBuffer.clearClip();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.virtualpc.os.ui;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Terminal scrollback kept in a fixed-capacity ring, plus the scroll position and search cursor.
+ * <p>
+ * Lines are numbered absolutely from the first line ever appended, so a number stays valid until the
+ * ring overwrites it. Appending is amortised O(1); once full, each new line replaces the oldest. The ring
+ * starts small and doubles up to its capacity, so a terminal that never fills its scrollback stays small.
+ * {@link #version()} changes whenever anything a view could show changes.
+ */
+public final class TerminalBuffer {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    private static final int INITIAL_SLOTS = 256;
+
+    private final int capacity;
+    private String[] lines;
+    private long first;
+    private long next;
+    private int scroll;
+    private String query = "";
+    private long match = -1;
+    private long version;
+
+    public TerminalBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Terminal needs room for at least one line: " + capacity);
+        }
+        this.capacity = capacity;
+        this.lines = new String[Math.min(capacity, INITIAL_SLOTS)];
+    }
+
+    public void append(String line) {
+        if (next >= lines.length && lines.length < capacity) {
+            // The ring has not wrapped yet, so line numbers are still array indices.
+            lines = Arrays.copyOf(lines, (int) Math.min(capacity, lines.length * 2L));
+        }
+        lines[(int) (next % capacity)] = line;
+        next++;
+        if (next - first > capacity) {
+            first++;
+            if (match < first) {
+                match = -1;
+            }
+        }
+        if (scroll > 0) {
+            // Keep a scrolled-back view on the same lines while output arrives below it.
+            scroll = (int) Math.min(scroll + 1L, size());
+        }
+        version++;
+    }
+
+    /**
+     * Appends multi-line text one line per line break, splitting lines longer than {@code columns}
+     * into several terminal lines. Tabs become spaces; a trailing line break adds no empty line.
+     */
+    public void appendWrapped(String text, int columns) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("Terminal needs at least one column: " + columns);
+        }
+        for (String line : text.replace('\t', ' ').split("\\R")) {
+            if (line.isEmpty()) {
+                append(line);
+            }
+            for (int start = 0; start < line.length(); start += columns) {
+                append(line.substring(start, Math.min(line.length(), start + columns)));
+            }
+        }
+    }
+
+    public void clear() {
+        first = next;
+        scroll = 0;
+        match = -1;
+        version++;
+    }
+
+    public int size() {
+        return (int) (next - first);
+    }
+
+    public long firstLine() {
+        return first;
+    }
+
+    /**
+     * One past the newest line.
+     */
+    public long endLine() {
+        return next;
+    }
+
+    public String line(long number) {
+        if (number < first || number >= next) {
+            throw new IllegalArgumentException("Terminal line not retained: " + number);
+        }
+        return lines[(int) (number % capacity)];
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Lines between the bottom of the view and the newest line.
+     */
+    public int scroll() {
+        return scroll;
+    }
+
+    /**
+     * First line shown by a view {@code rows} lines tall.
+     */
+    public long viewStart(int rows) {
+        return Math.max(first, viewEnd(rows) - rows);
+    }
+
+    /**
+     * One past the last line shown by a view {@code rows} lines tall.
+     */
+    public long viewEnd(int rows) {
+        return next - Math.min(scroll, maxScroll(rows));
+    }
+
+    /**
+     * Moves the view {@code delta} lines towards older output (negative: towards newer).
+     */
+    public void scrollBy(int delta, int rows) {
+        setScroll((long) clampedScroll(rows) + delta, rows);
+    }
+
+    public void scrollToTop(int rows) {
+        setScroll(maxScroll(rows), rows);
+    }
+
+    public void scrollToBottom() {
+        if (scroll != 0) {
+            scroll = 0;
+            version++;
+        }
+    }
+
+    public long match() {
+        return match;
+    }
+
+    /**
+     * Finds the next older line containing {@code text}, ignoring case, and scrolls it into a view
+     * {@code rows} lines tall. Repeating the last query, or passing an empty one, continues from the
+     * previous match; a new query starts at the bottom of the view. Returns false when nothing matches.
+     */
+    public boolean find(String text, int rows) {
+        String needle = text == null || text.isBlank() ? query : text.trim().toUpperCase();
+        if (needle.isEmpty()) {
+            return false;
+        }
+        long from = needle.equals(query) && match >= first ? match - 1 : viewEnd(rows) - 1;
+        query = needle;
+        for (long number = from; number >= first; number--) {
+            if (containsIgnoreCase(line(number), needle)) {
+                match = number;
+                long end = viewEnd(rows);
+                if (number < viewStart(rows) || number >= end) {
+                    setScroll(next - number - 1 - rows / 2, rows);
+                }
+                version++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(size());
+        for (long number = first; number < next; number++) {
+            out.writeUTF(line(number));
+        }
+        out.writeInt(scroll);
+        out.writeUTF(query);
+        out.writeLong(match < 0 ? -1 : match - first);
+    }
+
+    public void loadState(DataInput in) throws IOException {
+        first = 0;
+        next = 0;
+        scroll = 0;
+        match = -1;
+        for (int count = in.readInt(); count > 0; count--) {
+            append(in.readUTF());
+        }
+        scroll = in.readInt();
+        query = in.readUTF();
+        long relative = in.readLong();
+        match = relative < 0 ? -1 : first + relative;
+        version++;
+    }
+
+    private static boolean containsIgnoreCase(String line, String needle) {
+        for (int start = 0; start <= line.length() - needle.length(); start++) {
+            if (line.regionMatches(true, start, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int maxScroll(int rows) {
+        return Math.max(0, size() - rows);
+    }
+
+    private int clampedScroll(int rows) {
+        return Math.min(scroll, maxScroll(rows));
+    }
+
+    private void setScroll(long value, int rows) {
+        int clamped = (int) Math.max(0, Math.min(value, maxScroll(rows)));
+        if (clamped != scroll) {
+            scroll = clamped;
+            version++;
+        }
+    }
+}
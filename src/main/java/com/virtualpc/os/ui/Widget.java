@@ -0,0 +1,59 @@
+package com.virtualpc.os.ui;
+
+import com.virtualpc.video.FrameBuffer;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * One retained element of the OS screen. The {@link Compositor} repaints a widget only when
+ * {@link #state()} or {@link #bounds()} differ from what it painted last frame.
+ */
+public interface Widget {
+    Rectangle bounds();
+
+    /**
+     * Everything {@link #paint} reads, compared with {@code equals} between frames.
+     */
+    Object state();
+
+    /**
+     * Whether {@link #paint} covers every pixel of {@link #bounds()}.
+     */
+    boolean opaque();
+
+    void paint(FrameBuffer frameBuffer);
+
+    /**
+     * Adds the screen area that differs between {@code previousState} and the current state.
+     */
+    default void damage(Object previousState, List<Rectangle> damage) {
+        damage.add(bounds());
+    }
+
+    static Widget of(Rectangle bounds, boolean opaque, Supplier<Object> state, Consumer<FrameBuffer> painter) {
+        return new Widget() {
+            @Override
+            public Rectangle bounds() {
+                return bounds;
+            }
+
+            @Override
+            public Object state() {
+                return state.get();
+            }
+
+            @Override
+            public boolean opaque() {
+                return opaque;
+            }
+
+            @Override
+            public void paint(FrameBuffer frameBuffer) {
+                painter.accept(frameBuffer);
+            }
+        };
+    }
+}
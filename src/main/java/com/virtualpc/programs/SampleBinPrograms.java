@@ -1,6 +1,8 @@
 package com.virtualpc.programs;
 
 import com.virtualpc.cpu.InstructionSet;
+import com.virtualpc.cpu.InterruptController;
+import com.virtualpc.input.InputPorts;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -16,6 +18,9 @@ public final class SampleBinPrograms {
         writeIfMissing(binDirectory.resolve("counter.bin"), buildCounterProgram());
         writeIfMissing(binDirectory.resolve("vram-fill.bin"), buildVramFillProgram());
         writeIfMissing(binDirectory.resolve("pulse.bin"), buildPulseProgram());
+        writeIfMissing(binDirectory.resolve("input-echo.bin"), buildInputEchoProgram());
+        writeIfMissing(binDirectory.resolve("vsync-pulse.bin"), buildVsyncPulseProgram());
+        writeIfMissing(binDirectory.resolve("vram-rect.bin"), buildVramRectProgram());
     }
 
     private static void writeIfMissing(Path path, byte[] content) throws IOException {
@@ -47,14 +52,52 @@ public final class SampleBinPrograms {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         // Fill first 256 VRAM bytes with white and halt.
-        for (int i = 0; i < 256; i++) {
-            int address = 0x8000 + i;
-            out.write(InstructionSet.LDA_IMM);
-            out.write(0xE0);
-            out.write(InstructionSet.STA);
-            out.write((address >> 8) & 0xFF);
-            out.write(address & 0xFF);
-        }
+        // 0x0000: LDA #0xE0
+        out.write(InstructionSet.LDA_IMM);
+        out.write(0xE0);
+        // 0x0002: LDX 0x8000
+        out.write(InstructionSet.LDX);
+        out.write(0x80);
+        out.write(0x00);
+        // 0x0005: FILL 0x0100
+        out.write(InstructionSet.FILL);
+        out.write(0x01);
+        out.write(0x00);
+        // 0x0008: HALT
+        out.write(InstructionSet.HALT);
+
+        return out.toByteArray();
+    }
+
+    private static byte[] buildVramRectProgram() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Draw a 32x16 box at (16, 16) on the 256-pixel-wide screen, then copy its band 16 rows down.
+        // 0x0000: LDA #0x1C
+        out.write(InstructionSet.LDA_IMM);
+        out.write(0x1C);
+        // 0x0002: LDX 0x9010
+        out.write(InstructionSet.LDX);
+        out.write(0x90);
+        out.write(0x10);
+        // 0x0005: RECT 32, 16, stride 0x0100
+        out.write(InstructionSet.RECT);
+        out.write(32);
+        out.write(16);
+        out.write(0x01);
+        out.write(0x00);
+        // 0x000A: LDX 0xA000; LDY 0x9000
+        out.write(InstructionSet.LDX);
+        out.write(0xA0);
+        out.write(0x00);
+        out.write(InstructionSet.LDY);
+        out.write(0x90);
+        out.write(0x00);
+        // 0x0010: COPY 0x1000
+        out.write(InstructionSet.COPY);
+        out.write(0x10);
+        out.write(0x00);
+        // 0x0013: HALT
         out.write(InstructionSet.HALT);
 
         return out.toByteArray();
@@ -82,4 +125,83 @@ public final class SampleBinPrograms {
 
         return out.toByteArray();
     }
-}
\ No newline at end of file
+
+    private static byte[] buildInputEchoProgram() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int buttons = InputPorts.BASE + InputPorts.MOUSE_BUTTONS;
+        int keyData = InputPorts.BASE + InputPorts.KEY_DATA;
+
+        // Show the mouse buttons in pixel 0 and the last key typed in pixel 1.
+        // 0x0000: LDA buttons
+        out.write(InstructionSet.LDA_MEM);
+        out.write(buttons >> 8);
+        out.write(buttons & 0xFF);
+        // 0x0003: STA 0x8000
+        out.write(InstructionSet.STA);
+        out.write(0x80);
+        out.write(0x00);
+        // 0x0006: LDA key data (0 when no key is queued)
+        out.write(InstructionSet.LDA_MEM);
+        out.write(keyData >> 8);
+        out.write(keyData & 0xFF);
+        // 0x0009: JZ 0x0000
+        out.write(InstructionSet.JZ);
+        out.write(0x00);
+        out.write(0x00);
+        // 0x000C: STA 0x8001
+        out.write(InstructionSet.STA);
+        out.write(0x80);
+        out.write(0x01);
+        // 0x000F: JMP 0x0000
+        out.write(InstructionSet.JMP);
+        out.write(0x00);
+        out.write(0x00);
+
+        return out.toByteArray();
+    }
+
+    private static byte[] buildVsyncPulseProgram() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int handler = 0x0014;
+        int vector = InterruptController.BASE + InterruptController.VECTORS + InterruptController.IRQ_VSYNC * 2;
+        int mask = InterruptController.BASE + InterruptController.MASK;
+
+        // Same pulse as pulse.bin, but once per frame from the vsync interrupt; the CPU sleeps in between.
+        // 0x0000: vsync vector <- handler
+        out.write(InstructionSet.LDA_IMM);
+        out.write(handler >> 8);
+        out.write(InstructionSet.STA);
+        out.write(vector >> 8);
+        out.write(vector & 0xFF);
+        out.write(InstructionSet.LDA_IMM);
+        out.write(handler & 0xFF);
+        out.write(InstructionSet.STA);
+        out.write((vector + 1) >> 8);
+        out.write((vector + 1) & 0xFF);
+        // 0x000A: unmask vsync
+        out.write(InstructionSet.LDA_IMM);
+        out.write(1 << InterruptController.IRQ_VSYNC);
+        out.write(InstructionSet.STA);
+        out.write(mask >> 8);
+        out.write(mask & 0xFF);
+        // 0x000F: EI
+        out.write(InstructionSet.EI);
+        // 0x0010: WAIT; JMP 0x0010
+        out.write(InstructionSet.WAIT);
+        out.write(InstructionSet.JMP);
+        out.write(0x00);
+        out.write(0x10);
+        // 0x0014: handler: LDA 0x8000; ADD #0x11; STA 0x8000; RTI
+        out.write(InstructionSet.LDA_MEM);
+        out.write(0x80);
+        out.write(0x00);
+        out.write(InstructionSet.ADD_IMM);
+        out.write(0x11);
+        out.write(InstructionSet.STA);
+        out.write(0x80);
+        out.write(0x00);
+        out.write(InstructionSet.RTI);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package com.virtualpc.replay;
+
+import com.virtualpc.config.VmConfig;
+import com.virtualpc.input.InputBatch;
+import com.virtualpc.input.InputRing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+final class TraceFormat {
+    static final int MAGIC = 0x56504354;
+    static final int VERSION = 8;
+
+    static final int FRAME = 1;
+    static final int INPUT = 2;
+    static final int PROGRAM_LOAD = 3;
+    static final int CHECKPOINT = 4;
+    static final int IO_COMPLETIONS = 5;
+    static final int TIMER_EXPIRIES = 6;
+
+    private TraceFormat() {
+    }
+
+    static void writeHeader(DataOutput out, VmConfig config) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        for (int value : machineShape(config)) {
+            out.writeInt(value);
+        }
+    }
+
+    static void readHeader(DataInput in, VmConfig config) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a VM trace file");
+        }
+        int version = in.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+        for (int expected : machineShape(config)) {
+            if (in.readInt() != expected) {
+                throw new IOException("Trace was recorded with a different machine configuration");
+            }
+        }
+    }
+
+    static void writeInput(DataOutput out, InputBatch input, int index) throws IOException {
+        int type = input.type(index);
+        out.writeByte(INPUT);
+        out.writeByte(type);
+        switch (type) {
+            case InputRing.MOUSE_MOVE -> {
+                out.writeShort(input.x(index));
+                out.writeShort(input.y(index));
+            }
+            case InputRing.MOUSE_PRESS, InputRing.MOUSE_RELEASE -> out.writeByte(input.buttons(index));
+            case InputRing.CHAR -> out.writeChar(input.character(index));
+            default -> out.writeShort(input.keyCode(index));
+        }
+    }
+
+    /**
+     * Reads one input record and, when {@code ring} is not null, posts it there.
+     */
+    static void readInput(DataInput in, InputRing ring) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type >= InputRing.TYPE_COUNT) {
+            throw new IOException("Unknown input event type " + type);
+        }
+        int keyCode = 0;
+        char character = '\0';
+        int x = 0;
+        int y = 0;
+        int buttons = 0;
+        switch (type) {
+            case InputRing.MOUSE_MOVE -> {
+                x = in.readShort();
+                y = in.readShort();
+            }
+            case InputRing.MOUSE_PRESS, InputRing.MOUSE_RELEASE -> buttons = in.readUnsignedByte();
+            case InputRing.CHAR -> character = in.readChar();
+            default -> keyCode = in.readUnsignedShort();
+        }
+        if (ring != null && !ring.post(type, keyCode, character, x, y, buttons)) {
+            throw new IOException("Trace frame holds more input than the machine can queue");
+        }
+    }
+
+    private static int[] machineShape(VmConfig config) {
+        return new int[]{
+                config.ramSizeBytes(),
+                config.romLoadAddress(),
+                config.vramStartAddress(),
+                config.displayWidth(),
+                config.displayHeight(),
+                config.cyclesPerFrame()
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.virtualpc.replay;
+
+import com.virtualpc.core.FrameObserver;
+import com.virtualpc.core.MachineRuntime;
+import com.virtualpc.input.InputBatch;
+import com.virtualpc.os.ProgramLoadHook;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams every nondeterministic machine input to a deflate-compressed, append-only trace.
+ * The stream is sync-flushed after every frame, so a trace cut short by a crash stays readable up to the
+ * last completed frame. Writes and {@link #close()} are mutually exclusive, since a shutdown hook may close
+ * the recorder while the frame loop is still running; anything arriving after close is dropped.
+ */
+public final class TraceRecorder implements FrameObserver, ProgramLoadHook, AutoCloseable {
+    private final DataOutputStream out;
+    private final int checkpointInterval;
+    private boolean closed;
+
+    public TraceRecorder(Path tracePath, int checkpointInterval) throws IOException {
+        Path parent = tracePath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(tracePath), new Deflater(Deflater.BEST_SPEED), 64 * 1024, true)));
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    public synchronized void attach(MachineRuntime runtime) throws IOException {
+        TraceFormat.writeHeader(out, runtime.getConfig());
+        writeCheckpoint(runtime);
+        out.flush();
+        runtime.setFrameObserver(this);
+        runtime.getOperatingSystem().setProgramLoadHook(this);
+    }
+
+    @Override
+    public synchronized void onInput(InputBatch input) {
+        if (closed) {
+            return;
+        }
+        try {
+            for (int i = 0; i < input.size(); i++) {
+                TraceFormat.writeInput(out, input, i);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void onFrameCompleted(MachineRuntime runtime) {
+        if (closed) {
+            return;
+        }
+        try {
+            int completions = runtime.getOperatingSystem().asyncIo().lastApplied();
+            if (completions > 0) {
+                out.writeByte(TraceFormat.IO_COMPLETIONS);
+                out.writeShort(completions);
+            }
+            int expiries = runtime.getCpu().timer().lastHostExpiries();
+            if (expiries > 0) {
+                out.writeByte(TraceFormat.TIMER_EXPIRIES);
+                out.writeShort(expiries);
+            }
+            out.writeByte(TraceFormat.FRAME);
+            if (runtime.getFrameCount() % checkpointInterval == 0) {
+                writeCheckpoint(runtime);
+            }
+            out.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized byte[] onProgramLoad(String name, byte[] image) {
+        if (closed) {
+            return image;
+        }
+        try {
+            out.writeByte(TraceFormat.PROGRAM_LOAD);
+            out.writeUTF(name);
+            out.writeInt(image.length);
+            out.write(image);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return image;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.close();
+    }
+
+    private void writeCheckpoint(MachineRuntime runtime) throws IOException {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        runtime.writeCheckpoint(new DataOutputStream(blob));
+        out.writeByte(TraceFormat.CHECKPOINT);
+        out.writeLong(runtime.getFrameCount());
+        out.writeInt(blob.size());
+        blob.writeTo(out);
+    }
+}
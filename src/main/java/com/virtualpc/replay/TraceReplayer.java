@@ -0,0 +1,162 @@
+package com.virtualpc.replay;
+
+import com.virtualpc.config.VmConfig;
+import com.virtualpc.core.MachineRuntime;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Replays a trace written by {@link TraceRecorder} on a headless machine as fast as the host allows.
+ * Replay starts from the latest checkpoint at or before the requested frame; later checkpoints
+ * are compared against the live state to detect divergence.
+ */
+public final class TraceReplayer {
+    private final Path tracePath;
+
+    public TraceReplayer(Path tracePath) {
+        this.tracePath = tracePath;
+    }
+
+    public ReplayResult replay(VmConfig config, long startFrame, long endFrame) throws IOException {
+        long checkpointFrame = findCheckpoint(config, startFrame);
+        long started = System.nanoTime();
+        MachineRuntime runtime = new MachineRuntime(config);
+        Deque<byte[]> programLoads = new ArrayDeque<>();
+        runtime.getOperatingSystem().setProgramLoadHook((name, image) -> programLoads.isEmpty() ? image : programLoads.poll());
+        runtime.getOperatingSystem().asyncIo().setScripted(true);
+        runtime.getCpu().timer().setScripted(true);
+
+        long framesReplayed = 0;
+        int checkpointsVerified = 0;
+        int divergedCheckpoints = 0;
+        boolean restored = false;
+
+        try (DataInputStream in = open()) {
+            TraceFormat.readHeader(in, config);
+            while (runtime.getFrameCount() < endFrame) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case TraceFormat.INPUT -> TraceFormat.readInput(in, restored ? runtime.getInputRing() : null);
+                    case TraceFormat.PROGRAM_LOAD -> {
+                        in.readUTF();
+                        byte[] image = new byte[in.readInt()];
+                        in.readFully(image);
+                        if (restored) {
+                            programLoads.add(image);
+                        }
+                    }
+                    case TraceFormat.IO_COMPLETIONS -> {
+                        int completions = in.readUnsignedShort();
+                        if (restored) {
+                            runtime.getOperatingSystem().asyncIo().script(completions);
+                        }
+                    }
+                    case TraceFormat.TIMER_EXPIRIES -> {
+                        int expiries = in.readUnsignedShort();
+                        if (restored) {
+                            runtime.getCpu().timer().script(expiries);
+                        }
+                    }
+                    case TraceFormat.FRAME -> {
+                        if (restored) {
+                            runtime.runFrame();
+                            framesReplayed++;
+                        }
+                    }
+                    case TraceFormat.CHECKPOINT -> {
+                        long frame = in.readLong();
+                        byte[] blob = new byte[in.readInt()];
+                        in.readFully(blob);
+                        if (!restored && frame == checkpointFrame) {
+                            runtime.readCheckpoint(new DataInputStream(new ByteArrayInputStream(blob)));
+                            restored = true;
+                        } else if (restored) {
+                            checkpointsVerified++;
+                            if (!Arrays.equals(blob, checkpointOf(runtime))) {
+                                divergedCheckpoints++;
+                            }
+                        }
+                    }
+                    default -> throw new IOException("Corrupt trace record type " + type);
+                }
+            }
+        } catch (EOFException endOfTrace) {
+            // A trace cut short by a crash simply ends at its last complete record.
+        } catch (IOException | RuntimeException ex) {
+            runtime.close();
+            throw ex;
+        }
+
+        return new ReplayResult(runtime, checkpointFrame, framesReplayed, checkpointsVerified, divergedCheckpoints,
+                System.nanoTime() - started);
+    }
+
+    private long findCheckpoint(VmConfig config, long startFrame) throws IOException {
+        long best = -1;
+        try (DataInputStream in = open()) {
+            TraceFormat.readHeader(in, config);
+            boolean scanning = true;
+            while (scanning) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case TraceFormat.INPUT -> TraceFormat.readInput(in, null);
+                    case TraceFormat.PROGRAM_LOAD -> {
+                        in.readUTF();
+                        in.skipNBytes(in.readInt());
+                    }
+                    case TraceFormat.IO_COMPLETIONS, TraceFormat.TIMER_EXPIRIES -> in.readUnsignedShort();
+                    case TraceFormat.FRAME -> {
+                    }
+                    case TraceFormat.CHECKPOINT -> {
+                        long frame = in.readLong();
+                        in.skipNBytes(in.readInt());
+                        if (frame <= startFrame) {
+                            best = frame;
+                        } else {
+                            scanning = false;
+                        }
+                    }
+                    default -> throw new IOException("Corrupt trace record type " + type);
+                }
+            }
+        } catch (EOFException endOfTrace) {
+            // Scanned to the end of the recorded data.
+        }
+        if (best < 0) {
+            throw new IOException("Trace has no checkpoint at or before frame " + startFrame);
+        }
+        return best;
+    }
+
+    private DataInputStream open() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(tracePath)), 64 * 1024));
+    }
+
+    private static byte[] checkpointOf(MachineRuntime runtime) throws IOException {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        runtime.writeCheckpoint(new DataOutputStream(blob));
+        return blob.toByteArray();
+    }
+
+    public record ReplayResult(
+            MachineRuntime runtime,
+            long startCheckpointFrame,
+            long framesReplayed,
+            int checkpointsVerified,
+            int divergedCheckpoints,
+            long elapsedNanos
+    ) {
+    }
+}
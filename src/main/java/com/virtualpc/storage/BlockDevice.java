@@ -0,0 +1,53 @@
+package com.virtualpc.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A disk addressed in {@link #SECTOR_SIZE}-byte sectors. Transfers always cover whole sectors;
+ * the array forms move consecutive sectors, filling or draining each buffer in turn.
+ */
+public interface BlockDevice extends AutoCloseable {
+    int SECTOR_SIZE = 512;
+
+    long sectorCount();
+
+    /**
+     * Reads {@code target.remaining()} bytes starting at {@code sector}.
+     */
+    void read(long sector, ByteBuffer target) throws IOException;
+
+    /**
+     * Writes {@code source.remaining()} bytes starting at {@code sector}.
+     */
+    void write(long sector, ByteBuffer source) throws IOException;
+
+    default void read(long sector, ByteBuffer[] targets) throws IOException {
+        for (ByteBuffer target : targets) {
+            long sectors = target.remaining() / SECTOR_SIZE;
+            read(sector, target);
+            sector += sectors;
+        }
+    }
+
+    default void write(long sector, ByteBuffer[] sources) throws IOException {
+        for (ByteBuffer source : sources) {
+            long sectors = source.remaining() / SECTOR_SIZE;
+            write(sector, source);
+            sector += sectors;
+        }
+    }
+
+    /**
+     * Hands every buffered write to the backing store.
+     */
+    void flush() throws IOException;
+
+    /**
+     * {@link #flush()}es and then waits until the backing store has reached stable storage.
+     */
+    void force() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
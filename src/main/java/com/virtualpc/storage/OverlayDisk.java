@@ -0,0 +1,375 @@
+package com.virtualpc.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A copy-on-write {@link BlockDevice}: reads fall through to a read-only base image until a cluster
+ * is first written, after which that cluster lives in a sparse per-machine delta file.
+ * <p>
+ * Delta layout: a header, one table entry per cluster (file offset, stored length, capacity; offset 0
+ * means the cluster is still in the base), then cluster data in allocation order. A cluster is stored
+ * deflated whenever that makes it smaller. {@link #commit(Path)} folds the delta into a copy of the base.
+ * Access is synchronized for the same reason as {@link VirtualDisk}.
+ */
+public final class OverlayDisk implements BlockDevice {
+    public static final int CLUSTER_SIZE = 4096;
+
+    private static final int MAGIC = 0x5650_4F56;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int ENTRY_BYTES = 16;
+
+    private final Path deltaPath;
+    private final int cacheClusters;
+    private final boolean compress;
+    private final FileChannel delta;
+    private final long size;
+    private final int clusterCount;
+    private final long tableEnd;
+    private final long[] offsets;
+    private final int[] storedLengths;
+    private final int[] capacities;
+    private final Map<Integer, Cluster> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] packed = new byte[CLUSTER_SIZE * 2];
+    private Path basePath;
+    private VirtualDisk base;
+    private long dataEnd;
+
+    /**
+     * Opens {@code deltaPath} over {@code basePath}, creating an empty delta when the file does not exist yet.
+     */
+    public OverlayDisk(Path basePath, Path deltaPath, int cacheClusters, boolean compress) throws IOException {
+        if (cacheClusters < 1) {
+            throw new IllegalArgumentException("Overlay cache needs at least one cluster: " + cacheClusters);
+        }
+        this.basePath = basePath;
+        this.deltaPath = deltaPath;
+        this.cacheClusters = cacheClusters;
+        this.compress = compress;
+        this.base = VirtualDisk.openReadOnly(basePath, cacheClusters);
+        this.size = base.size();
+        if (size % SECTOR_SIZE != 0) {
+            base.close();
+            throw new IllegalArgumentException("Base image is not a whole number of sectors: " + basePath);
+        }
+        this.clusterCount = (int) ((size + CLUSTER_SIZE - 1) / CLUSTER_SIZE);
+        this.tableEnd = HEADER_BYTES + (long) clusterCount * ENTRY_BYTES;
+        this.offsets = new long[clusterCount];
+        this.storedLengths = new int[clusterCount];
+        this.capacities = new int[clusterCount];
+
+        Files.createDirectories(deltaPath.toAbsolutePath().getParent());
+        this.delta = FileChannel.open(deltaPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (delta.size() == 0) {
+                resetDelta();
+            } else {
+                readTable();
+            }
+        } catch (IOException | RuntimeException ex) {
+            delta.close();
+            base.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public long sectorCount() {
+        return size / SECTOR_SIZE;
+    }
+
+    public synchronized int allocatedClusters() {
+        int allocated = 0;
+        for (long offset : offsets) {
+            if (offset != 0) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Bytes the delta file occupies, header and table included.
+     */
+    public synchronized long deltaBytes() {
+        return dataEnd;
+    }
+
+    @Override
+    public synchronized void read(long sector, ByteBuffer target) throws IOException {
+        long position = validateSectors(sector, target.remaining());
+        while (target.hasRemaining()) {
+            int index = (int) (position / CLUSTER_SIZE);
+            int offset = (int) (position % CLUSTER_SIZE);
+            int length = Math.min(target.remaining(), clusterLength(index) - offset);
+            Cluster cluster = cache.get(index);
+            if (cluster == null && offsets[index] == 0) {
+                ByteBuffer window = target.duplicate();
+                window.limit(window.position() + length);
+                base.read(position / SECTOR_SIZE, window);
+                target.position(target.position() + length);
+            } else {
+                if (cluster == null) {
+                    cluster = cluster(index, false);
+                }
+                target.put(cluster.data, offset, length);
+            }
+            position += length;
+        }
+    }
+
+    @Override
+    public synchronized void write(long sector, ByteBuffer source) throws IOException {
+        long position = validateSectors(sector, source.remaining());
+        while (source.hasRemaining()) {
+            int index = (int) (position / CLUSTER_SIZE);
+            int offset = (int) (position % CLUSTER_SIZE);
+            boolean whole = offset == 0 && source.remaining() >= clusterLength(index);
+            Cluster cluster = cluster(index, whole);
+            int length = Math.min(source.remaining(), cluster.length - offset);
+            source.get(cluster.data, offset, length);
+            cluster.dirty = true;
+            position += length;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (Map.Entry<Integer, Cluster> entry : cache.entrySet()) {
+            writeBack(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        flush();
+        delta.force(false);
+    }
+
+    /**
+     * Writes the base with every delta cluster applied to {@code target}, which must not exist yet, syncs it,
+     * then moves this overlay onto it and empties the delta. The shared base is never modified, so other
+     * overlays built against it stay valid; this machine's delta must be reopened over {@code target} from now on.
+     */
+    public synchronized void commit(Path target) throws IOException {
+        if (Files.exists(target)) {
+            // Files.copy silently does nothing when target is the base itself.
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        flush();
+        Files.copy(basePath, target);
+        try (VirtualDisk writable = new VirtualDisk(target, (int) size, cacheClusters)) {
+            byte[] data = new byte[CLUSTER_SIZE];
+            for (int index = 0; index < clusterCount; index++) {
+                if (offsets[index] == 0) {
+                    continue;
+                }
+                int length = clusterLength(index);
+                readStored(index, data, length);
+                writable.write((long) index * CLUSTER_SIZE / SECTOR_SIZE, ByteBuffer.wrap(data, 0, length));
+            }
+            writable.force();
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(target);
+            throw ex;
+        }
+
+        VirtualDisk previous = base;
+        base = VirtualDisk.openReadOnly(target, cacheClusters);
+        basePath = target;
+        previous.close();
+        resetDelta();
+        delta.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                delta.close();
+            } finally {
+                base.close();
+            }
+        }
+    }
+
+    /**
+     * The cached cluster {@code index}, copied up from the delta or the base unless it will be overwritten whole.
+     */
+    private Cluster cluster(int index, boolean overwrite) throws IOException {
+        Cluster cluster = cache.get(index);
+        if (cluster != null) {
+            return cluster;
+        }
+
+        int length = clusterLength(index);
+        byte[] data = cache.size() < cacheClusters ? new byte[CLUSTER_SIZE] : evictEldest();
+        if (!overwrite) {
+            if (offsets[index] != 0) {
+                readStored(index, data, length);
+            } else {
+                base.read((long) index * CLUSTER_SIZE / SECTOR_SIZE, ByteBuffer.wrap(data, 0, length));
+            }
+        }
+        cluster = new Cluster(data, length);
+        cache.put(index, cluster);
+        return cluster;
+    }
+
+    private byte[] evictEldest() throws IOException {
+        Iterator<Map.Entry<Integer, Cluster>> eldest = cache.entrySet().iterator();
+        Map.Entry<Integer, Cluster> victim = eldest.next();
+        writeBack(victim.getKey(), victim.getValue());
+        eldest.remove();
+        return victim.getValue().data;
+    }
+
+    private void writeBack(int index, Cluster cluster) throws IOException {
+        if (!cluster.dirty) {
+            return;
+        }
+
+        byte[] stored = cluster.data;
+        int storedLength = cluster.length;
+        if (compress) {
+            deflater.reset();
+            deflater.setInput(cluster.data, 0, cluster.length);
+            deflater.finish();
+            int deflated = deflater.deflate(packed);
+            if (deflater.finished() && deflated < cluster.length) {
+                stored = packed;
+                storedLength = deflated;
+            }
+        }
+
+        if (offsets[index] == 0 || storedLength > capacities[index]) {
+            // A cluster that outgrows its first slot moves to a full-size one, so it relocates at most once.
+            capacities[index] = offsets[index] == 0
+                    ? Math.min(cluster.length, (storedLength + SECTOR_SIZE - 1) / SECTOR_SIZE * SECTOR_SIZE)
+                    : cluster.length;
+            offsets[index] = dataEnd;
+            dataEnd += capacities[index];
+        }
+        storedLengths[index] = storedLength;
+        writeFully(ByteBuffer.wrap(stored, 0, storedLength), offsets[index]);
+        writeEntry(index);
+        cluster.dirty = false;
+    }
+
+    private void readStored(int index, byte[] data, int length) throws IOException {
+        int storedLength = storedLengths[index];
+        byte[] target = storedLength < length ? packed : data;
+        ByteBuffer buffer = ByteBuffer.wrap(target, 0, storedLength);
+        while (buffer.hasRemaining()) {
+            if (delta.read(buffer, offsets[index] + buffer.position()) < 0) {
+                throw new IOException("Overlay delta truncated at cluster " + index + ": " + deltaPath);
+            }
+        }
+        if (storedLength == length) {
+            return;
+        }
+
+        inflater.reset();
+        inflater.setInput(packed, 0, storedLength);
+        try {
+            if (inflater.inflate(data, 0, length) != length) {
+                throw new IOException("Overlay cluster " + index + " inflates short: " + deltaPath);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt overlay cluster " + index + ": " + deltaPath, ex);
+        }
+    }
+
+    private void readTable() throws IOException {
+        ByteBuffer table = ByteBuffer.allocate((int) tableEnd);
+        while (table.hasRemaining()) {
+            if (delta.read(table, table.position()) < 0) {
+                throw new IOException("Overlay delta header truncated: " + deltaPath);
+            }
+        }
+        table.flip();
+        if (table.getInt() != MAGIC || table.getInt() != VERSION) {
+            throw new IOException("Not an overlay delta: " + deltaPath);
+        }
+        if (table.getInt() != CLUSTER_SIZE || table.getLong() != size || table.getInt() != clusterCount) {
+            throw new IOException("Overlay delta " + deltaPath + " does not match base " + basePath);
+        }
+
+        dataEnd = tableEnd;
+        for (int index = 0; index < clusterCount; index++) {
+            offsets[index] = table.getLong();
+            storedLengths[index] = table.getInt();
+            capacities[index] = table.getInt();
+            if (offsets[index] != 0) {
+                dataEnd = Math.max(dataEnd, offsets[index] + capacities[index]);
+            }
+        }
+    }
+
+    private void resetDelta() throws IOException {
+        ByteBuffer table = ByteBuffer.allocate((int) tableEnd);
+        table.putInt(MAGIC).putInt(VERSION).putInt(CLUSTER_SIZE).putLong(size).putInt(clusterCount);
+        table.position(0);
+        delta.truncate(0);
+        writeFully(table, 0);
+        Arrays.fill(offsets, 0);
+        Arrays.fill(storedLengths, 0);
+        Arrays.fill(capacities, 0);
+        dataEnd = tableEnd;
+    }
+
+    private void writeEntry(int index) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        entry.putLong(offsets[index]).putInt(storedLengths[index]).putInt(capacities[index]).flip();
+        writeFully(entry, HEADER_BYTES + (long) index * ENTRY_BYTES);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            delta.write(buffer, start + buffer.position());
+        }
+    }
+
+    private int clusterLength(int index) {
+        return (int) Math.min(CLUSTER_SIZE, size - (long) index * CLUSTER_SIZE);
+    }
+
+    private long validateSectors(long sector, int bytes) {
+        if (bytes % SECTOR_SIZE != 0) {
+            throw new IllegalArgumentException("Transfer is not a whole number of sectors: " + bytes + " bytes");
+        }
+        if (sector < 0 || sector + bytes / SECTOR_SIZE > sectorCount()) {
+            throw new IllegalArgumentException("Overlay disk sector out of bounds: " + sector);
+        }
+        return sector * SECTOR_SIZE;
+    }
+
+    private static final class Cluster {
+        private final byte[] data;
+        private final int length;
+        private boolean dirty;
+
+        private Cluster(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
@@ -2,32 +2,122 @@ package com.virtualpc.storage;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A host file used as a {@link BlockDevice}. Access goes through an LRU write-back cache of
+ * {@link #PAGE_SIZE}-byte pages, so hot sectors and byte accesses cost no system calls; dirty
+ * pages reach the file on eviction, {@link #flush()}, {@link #force()} or {@link #close()}.
+ * <p>
+ * Every access is synchronized: guest file I/O runs on the {@code AsyncIo} pool while the machine
+ * thread flushes and closes the disk, and even reads reorder the cache.
+ */
+public final class VirtualDisk implements BlockDevice {
+    public static final int PAGE_SIZE = 4096;
+    public static final int DEFAULT_CACHE_PAGES = 64;
 
-public final class VirtualDisk implements AutoCloseable {
     private final Path diskPath;
     private final RandomAccessFile diskFile;
+    private final FileChannel channel;
+    private final long size;
+    private final int cachePages;
+    private final boolean readOnly;
+    private final Map<Long, Page> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private Page recent;
 
     public VirtualDisk(Path diskPath, int sizeBytes) throws IOException {
+        this(diskPath, sizeBytes, DEFAULT_CACHE_PAGES);
+    }
+
+    public VirtualDisk(Path diskPath, int sizeBytes, int cachePages) throws IOException {
+        this(diskPath, requireCachePages(cachePages), openSized(diskPath, sizeBytes), false);
+    }
+
+    private VirtualDisk(Path diskPath, int cachePages, RandomAccessFile diskFile, boolean readOnly) throws IOException {
         this.diskPath = diskPath;
-        Files.createDirectories(diskPath.toAbsolutePath().getParent());
-        this.diskFile = new RandomAccessFile(diskPath.toFile(), "rw");
-        if (diskFile.length() != sizeBytes) {
-            diskFile.setLength(sizeBytes);
-        }
+        this.cachePages = cachePages;
+        this.diskFile = diskFile;
+        this.size = diskFile.length();
+        this.channel = diskFile.getChannel();
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Opens an existing image at its current size; every write throws {@link IllegalStateException}.
+     */
+    public static VirtualDisk openReadOnly(Path diskPath, int cachePages) throws IOException {
+        return new VirtualDisk(diskPath, requireCachePages(cachePages), new RandomAccessFile(diskPath.toFile(), "r"), true);
     }
 
-    public void writeByte(long offset, int value) throws IOException {
+    public synchronized void writeByte(long offset, int value) throws IOException {
+        requireWritable();
         validateOffset(offset);
-        diskFile.seek(offset);
-        diskFile.write(value & 0xFF);
+        Page page = page(offset / PAGE_SIZE, false);
+        page.data[(int) (offset % PAGE_SIZE)] = (byte) value;
+        page.dirty = true;
     }
 
-    public int readByte(long offset) throws IOException {
+    public synchronized int readByte(long offset) throws IOException {
         validateOffset(offset);
-        diskFile.seek(offset);
-        return diskFile.readUnsignedByte();
+        return page(offset / PAGE_SIZE, false).data[(int) (offset % PAGE_SIZE)] & 0xFF;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long sectorCount() {
+        return size / SECTOR_SIZE;
+    }
+
+    @Override
+    public synchronized void read(long sector, ByteBuffer target) throws IOException {
+        long position = validateSectors(sector, target.remaining());
+        while (target.hasRemaining()) {
+            int offset = (int) (position % PAGE_SIZE);
+            Page page = page(position / PAGE_SIZE, false);
+            int length = Math.min(target.remaining(), page.length - offset);
+            target.put(page.data, offset, length);
+            position += length;
+        }
+    }
+
+    @Override
+    public synchronized void write(long sector, ByteBuffer source) throws IOException {
+        requireWritable();
+        long position = validateSectors(sector, source.remaining());
+        while (source.hasRemaining()) {
+            int offset = (int) (position % PAGE_SIZE);
+            long index = position / PAGE_SIZE;
+            boolean whole = offset == 0 && source.remaining() >= pageLength(index);
+            Page page = page(index, whole);
+            int length = Math.min(source.remaining(), page.length - offset);
+            source.get(page.data, offset, length);
+            page.dirty = true;
+            position += length;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (Page page : cache.values()) {
+            writeBack(page);
+        }
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        flush();
+        if (!readOnly) {
+            channel.force(false);
+        }
     }
 
     public Path getDiskPath() {
@@ -35,13 +125,116 @@ public final class VirtualDisk implements AutoCloseable {
     }
 
     @Override
-    public void close() throws IOException {
-        diskFile.close();
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            diskFile.close();
+        }
+    }
+
+    /**
+     * The cached page {@code index}, loading it from the file unless the caller will overwrite all of it.
+     */
+    private Page page(long index, boolean overwrite) throws IOException {
+        if (recent != null && recent.index == index) {
+            return recent;
+        }
+        Page page = cache.get(index);
+        if (page != null) {
+            recent = page;
+            return page;
+        }
+
+        byte[] data = cache.size() < cachePages ? new byte[PAGE_SIZE] : evictEldest();
+        page = new Page(index, data, pageLength(index));
+        if (!overwrite) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, page.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, index * PAGE_SIZE + buffer.position()) < 0) {
+                    throw new IOException("Virtual disk truncated at page " + index);
+                }
+            }
+        }
+        cache.put(index, page);
+        recent = page;
+        return page;
+    }
+
+    private byte[] evictEldest() throws IOException {
+        Iterator<Page> eldest = cache.values().iterator();
+        Page victim = eldest.next();
+        writeBack(victim);
+        eldest.remove();
+        if (victim == recent) {
+            recent = null;
+        }
+        return victim.data;
+    }
+
+    private void writeBack(Page page) throws IOException {
+        if (!page.dirty) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(page.data, 0, page.length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, page.index * PAGE_SIZE + buffer.position());
+        }
+        page.dirty = false;
+    }
+
+    private void requireWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Virtual disk is read-only: " + diskPath);
+        }
+    }
+
+    private static int requireCachePages(int cachePages) {
+        if (cachePages < 1) {
+            throw new IllegalArgumentException("Disk cache needs at least one page: " + cachePages);
+        }
+        return cachePages;
+    }
+
+    private static RandomAccessFile openSized(Path diskPath, int sizeBytes) throws IOException {
+        Files.createDirectories(diskPath.toAbsolutePath().getParent());
+        RandomAccessFile file = new RandomAccessFile(diskPath.toFile(), "rw");
+        if (file.length() != sizeBytes) {
+            file.setLength(sizeBytes);
+        }
+        return file;
+    }
+
+    private int pageLength(long index) {
+        return (int) Math.min(PAGE_SIZE, size - index * PAGE_SIZE);
     }
 
-    private void validateOffset(long offset) throws IOException {
-        if (offset < 0 || offset >= diskFile.length()) {
+    private long validateSectors(long sector, int bytes) {
+        if (bytes % SECTOR_SIZE != 0) {
+            throw new IllegalArgumentException("Transfer is not a whole number of sectors: " + bytes + " bytes");
+        }
+        if (sector < 0 || sector + bytes / SECTOR_SIZE > sectorCount()) {
+            throw new IllegalArgumentException("Virtual disk sector out of bounds: " + sector);
+        }
+        return sector * SECTOR_SIZE;
+    }
+
+    private void validateOffset(long offset) {
+        if (offset < 0 || offset >= size) {
             throw new IllegalArgumentException("Virtual disk offset out of bounds: " + offset);
         }
     }
-}
\ No newline at end of file
+
+    private static final class Page {
+        private final long index;
+        private final byte[] data;
+        private final int length;
+        private boolean dirty;
+
+        private Page(long index, byte[] data, int length) {
+            this.index = index;
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
@@ -1,31 +1,29 @@
 package com.virtualpc.video;
 
-import com.virtualpc.input.KeyboardState;
-import com.virtualpc.input.MouseState;
+import com.virtualpc.input.InputRing;
 
 import javax.swing.JPanel;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 
 public final class DisplayPanel extends JPanel {
     private final VideoDevice videoDevice;
-    private final MouseState mouseState;
-    private final KeyboardState keyboardState;
+    private final InputRing inputRing;
     private final int width;
     private final int height;
     private final int scale;
 
-    public DisplayPanel(VideoDevice videoDevice, MouseState mouseState, KeyboardState keyboardState,
-                        int width, int height, int scale) {
+    public DisplayPanel(VideoDevice videoDevice, InputRing inputRing, int width, int height, int scale) {
         this.videoDevice = videoDevice;
-        this.mouseState = mouseState;
-        this.keyboardState = keyboardState;
+        this.inputRing = inputRing;
         this.width = width;
         this.height = height;
         this.scale = scale;
@@ -42,7 +40,25 @@ public final class DisplayPanel extends JPanel {
         Graphics2D g2 = (Graphics2D) g;
         g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         int[] view = computeViewport();
-        g2.drawImage(videoDevice.frame(), view[0], view[1], view[2], view[3], null);
+        BufferedImage frame = videoDevice.frame();
+        synchronized (frame) {
+            g2.drawImage(frame, view[0], view[1], view[2], view[3], null);
+        }
+    }
+
+    /**
+     * Repaints only the part of the window showing {@code damage}, given in VRAM pixels.
+     */
+    public void repaintDamage(Rectangle damage) {
+        if (damage == null) {
+            return;
+        }
+        int[] view = computeViewport();
+        int left = view[0] + damage.x * view[2] / width;
+        int top = view[1] + damage.y * view[3] / height;
+        int right = view[0] + ((damage.x + damage.width) * view[2] + width - 1) / width;
+        int bottom = view[1] + ((damage.y + damage.height) * view[3] + height - 1) / height;
+        repaint(new Rectangle(left, top, right - left, bottom - top));
     }
 
     private void wireMouse() {
@@ -61,13 +77,13 @@ public final class DisplayPanel extends JPanel {
             public void mousePressed(MouseEvent e) {
                 requestFocusInWindow();
                 updateMousePosition(e);
-                mouseState.onPressed();
+                inputRing.post(InputRing.MOUSE_PRESS, 0, '\0', 0, 0, e.getButton());
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
                 updateMousePosition(e);
-                mouseState.onReleased();
+                inputRing.post(InputRing.MOUSE_RELEASE, 0, '\0', 0, 0, e.getButton());
             }
         };
 
@@ -79,15 +95,19 @@ public final class DisplayPanel extends JPanel {
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyTyped(KeyEvent e) {
-                keyboardState.onChar(e.getKeyChar());
+                inputRing.postChar(e.getKeyChar());
             }
 
             @Override
             public void keyPressed(KeyEvent e) {
                 if (e.getKeyCode() == KeyEvent.VK_ENTER) {
-                    keyboardState.onEnter();
+                    inputRing.postKey(InputRing.ENTER, e.getKeyCode());
                 } else if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
-                    keyboardState.onBackspace();
+                    inputRing.postKey(InputRing.BACKSPACE, e.getKeyCode());
+                } else if (e.getKeyCode() == KeyEvent.VK_PAGE_UP) {
+                    inputRing.postKey(InputRing.PAGE_UP, e.getKeyCode());
+                } else if (e.getKeyCode() == KeyEvent.VK_PAGE_DOWN) {
+                    inputRing.postKey(InputRing.PAGE_DOWN, e.getKeyCode());
                 }
             }
         });
@@ -105,7 +125,7 @@ public final class DisplayPanel extends JPanel {
 
         int x = Math.max(0, Math.min(width - 1, localX));
         int y = Math.max(0, Math.min(height - 1, localY));
-        mouseState.updatePosition(x, y);
+        inputRing.postMove(x, y);
     }
 
     private int[] computeViewport() {
@@ -1,18 +1,36 @@
 package com.virtualpc.video;
 
+import com.virtualpc.memory.MemoryWriteListener;
 import com.virtualpc.memory.Ram;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
-public final class FrameBuffer {
-    private static final Map<Character, int[]> FONT = buildFont();
+/**
+ * Software back buffer for the OS screen. Drawing is limited to an optional clip rectangle and
+ * records a dirty span per scanline; {@link #present()} only compares and copies those spans.
+ * VRAM rows written by anyone else are marked dirty too, so the next present restores them.
+ */
+public final class FrameBuffer implements MemoryWriteListener {
+    private static final int MIN_RUN_GAP = 8;
 
     private final Ram ram;
     private final int vramStart;
     private final int width;
     private final int height;
     private final byte[] backBuffer;
+    private final byte[] vramSnapshot;
+    private final TextRunCache textRuns = new TextRunCache();
+    private final int[] dirtyFrom;
+    private final int[] dirtyTo;
+    private int firstDirtyRow;
+    private int lastDirtyRow;
+    private int clipX0;
+    private int clipY0;
+    private int clipX1;
+    private int clipY1;
+    private boolean presenting;
+    private int presentedBytes;
 
     public FrameBuffer(Ram ram, int vramStart, int width, int height) {
         this.ram = ram;
@@ -20,6 +38,12 @@ public final class FrameBuffer {
         this.width = width;
         this.height = height;
         this.backBuffer = new byte[width * height];
+        this.vramSnapshot = new byte[width * height];
+        this.dirtyFrom = new int[height];
+        this.dirtyTo = new int[height];
+        clearClip();
+        markDirty(0, 0, width, height);
+        ram.addWriteListener(this);
     }
 
     public int width() {
@@ -30,33 +54,61 @@ public final class FrameBuffer {
         return height;
     }
 
+    /**
+     * Restricts drawing to {@code area} until {@link #clearClip()}.
+     */
+    public void setClip(Rectangle area) {
+        clipX0 = Math.max(0, area.x);
+        clipY0 = Math.max(0, area.y);
+        clipX1 = Math.min(width, area.x + area.width);
+        clipY1 = Math.min(height, area.y + area.height);
+    }
+
+    public Rectangle clip() {
+        return new Rectangle(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+    }
+
+    public void clearClip() {
+        clipX0 = 0;
+        clipY0 = 0;
+        clipX1 = width;
+        clipY1 = height;
+    }
+
+    /**
+     * Bytes written to VRAM by the last {@link #present()}.
+     */
+    public int presentedBytes() {
+        return presentedBytes;
+    }
+
     public void clear(int colorIndex) {
-        byte value = (byte) (colorIndex & 0xFF);
-        for (int i = 0; i < backBuffer.length; i++) {
-            backBuffer[i] = value;
-        }
+        fillRect(0, 0, width, height, colorIndex);
     }
 
     public void setPixel(int x, int y, int colorIndex) {
-        if (x < 0 || y < 0 || x >= width || y >= height) {
+        if (x < clipX0 || y < clipY0 || x >= clipX1 || y >= clipY1) {
             return;
         }
         backBuffer[y * width + x] = (byte) (colorIndex & 0xFF);
+        markDirty(x, y, x + 1, y + 1);
     }
 
     public void fillRect(int x, int y, int w, int h, int colorIndex) {
-        int startX = Math.max(0, x);
-        int startY = Math.max(0, y);
-        int endX = Math.min(width, x + w);
-        int endY = Math.min(height, y + h);
+        int startX = Math.max(clipX0, x);
+        int startY = Math.max(clipY0, y);
+        int endX = Math.min(clipX1, x + w);
+        int endY = Math.min(clipY1, y + h);
+        if (startX >= endX || startY >= endY) {
+            return;
+        }
 
         byte value = (byte) (colorIndex & 0xFF);
         for (int py = startY; py < endY; py++) {
             int rowOffset = py * width;
-            for (int px = startX; px < endX; px++) {
-                backBuffer[rowOffset + px] = value;
-            }
+            Arrays.fill(backBuffer, rowOffset + startX, rowOffset + endX, value);
         }
+        markDirty(startX, startY, endX, endY);
     }
 
     public void drawRect(int x, int y, int w, int h, int colorIndex) {
@@ -75,77 +127,104 @@ public final class FrameBuffer {
             return;
         }
 
-        int cursorX = x;
-        for (int i = 0; i < text.length(); i++) {
-            char c = Character.toUpperCase(text.charAt(i));
-            drawChar(cursorX, y, c, colorIndex);
-            cursorX += 6;
+        TextRunCache.TextRun run = textRuns.get(text);
+        int startX = Math.max(clipX0, x);
+        int startY = Math.max(clipY0, y);
+        int endX = Math.min(clipX1, x + run.width());
+        int endY = Math.min(clipY1, y + GlyphAtlas.GLYPH_HEIGHT);
+        if (startX >= endX || startY >= endY) {
+            return;
+        }
+
+        byte value = (byte) (colorIndex & 0xFF);
+        for (int py = startY; py < endY; py++) {
+            int rowOffset = py * width;
+            int[] spans = run.rowSpans()[py - y];
+            for (int i = 0; i < spans.length; i += 2) {
+                int from = Math.max(startX, x + spans[i]);
+                int to = Math.min(endX, x + spans[i + 1]);
+                if (from < to) {
+                    Arrays.fill(backBuffer, rowOffset + from, rowOffset + to, value);
+                }
+            }
         }
+        markDirty(startX, startY, endX, endY);
     }
 
+    /**
+     * Copies the back buffer into VRAM, writing only the changed runs of each dirty scanline
+     * so the video device sees exactly the bytes that differ.
+     */
     public void present() {
-        ram.writeBlock(vramStart, backBuffer);
+        presentedBytes = 0;
+        presenting = true;
+        try {
+            for (int row = firstDirtyRow; row <= lastDirtyRow; row++) {
+                int spanFrom = dirtyFrom[row];
+                int spanTo = dirtyTo[row];
+                if (spanFrom >= spanTo) {
+                    continue;
+                }
+                dirtyFrom[row] = width;
+                dirtyTo[row] = 0;
+
+                int from = row * width + spanFrom;
+                int to = row * width + spanTo;
+                ram.readBlock(vramStart + from, vramSnapshot, from, to - from);
+                presentRuns(from, to);
+            }
+        } finally {
+            presenting = false;
+        }
+        firstDirtyRow = height;
+        lastDirtyRow = -1;
     }
 
-    private void drawChar(int x, int y, char c, int colorIndex) {
-        int[] glyph = FONT.getOrDefault(c, FONT.get(' '));
-        for (int row = 0; row < glyph.length; row++) {
-            int rowMask = glyph[row];
-            for (int col = 0; col < 5; col++) {
-                if ((rowMask & (1 << (4 - col))) != 0) {
-                    setPixel(x + col, y + row, colorIndex);
+    /**
+     * Writes each run of changed bytes in {@code [from, to)}; runs closer than {@link #MIN_RUN_GAP} are merged.
+     */
+    private void presentRuns(int from, int to) {
+        int position = from;
+        while (position < to) {
+            int mismatch = Arrays.mismatch(backBuffer, position, to, vramSnapshot, position, to);
+            if (mismatch < 0) {
+                return;
+            }
+            int start = position + mismatch;
+            int end = start + 1;
+            for (int i = end; i < to && i - end < MIN_RUN_GAP; i++) {
+                if (backBuffer[i] != vramSnapshot[i]) {
+                    end = i + 1;
                 }
             }
+            ram.writeBlock(vramStart + start, backBuffer, start, end - start);
+            presentedBytes += end - start;
+            position = end;
         }
     }
 
-    private static Map<Character, int[]> buildFont() {
-        Map<Character, int[]> map = new HashMap<>();
-        map.put(' ', new int[]{0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00000});
-        map.put(':', new int[]{0b00000, 0b00100, 0b00000, 0b00000, 0b00100, 0b00000, 0b00000});
-        map.put('.', new int[]{0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00100, 0b00000});
-        map.put('%', new int[]{0b11001, 0b11010, 0b00100, 0b01011, 0b10011, 0b00000, 0b00000});
-        map.put('-', new int[]{0b00000, 0b00000, 0b00000, 0b11111, 0b00000, 0b00000, 0b00000});
-        map.put('/', new int[]{0b00001, 0b00010, 0b00100, 0b01000, 0b10000, 0b00000, 0b00000});
-
-        map.put('0', new int[]{0b01110, 0b10001, 0b10011, 0b10101, 0b11001, 0b10001, 0b01110});
-        map.put('1', new int[]{0b00100, 0b01100, 0b00100, 0b00100, 0b00100, 0b00100, 0b01110});
-        map.put('2', new int[]{0b01110, 0b10001, 0b00001, 0b00010, 0b00100, 0b01000, 0b11111});
-        map.put('3', new int[]{0b11110, 0b00001, 0b00001, 0b01110, 0b00001, 0b00001, 0b11110});
-        map.put('4', new int[]{0b00010, 0b00110, 0b01010, 0b10010, 0b11111, 0b00010, 0b00010});
-        map.put('5', new int[]{0b11111, 0b10000, 0b11110, 0b00001, 0b00001, 0b10001, 0b01110});
-        map.put('6', new int[]{0b00110, 0b01000, 0b10000, 0b11110, 0b10001, 0b10001, 0b01110});
-        map.put('7', new int[]{0b11111, 0b00001, 0b00010, 0b00100, 0b01000, 0b01000, 0b01000});
-        map.put('8', new int[]{0b01110, 0b10001, 0b10001, 0b01110, 0b10001, 0b10001, 0b01110});
-        map.put('9', new int[]{0b01110, 0b10001, 0b10001, 0b01111, 0b00001, 0b00010, 0b11100});
-
-        map.put('A', new int[]{0b01110, 0b10001, 0b10001, 0b11111, 0b10001, 0b10001, 0b10001});
-        map.put('B', new int[]{0b11110, 0b10001, 0b10001, 0b11110, 0b10001, 0b10001, 0b11110});
-        map.put('C', new int[]{0b01110, 0b10001, 0b10000, 0b10000, 0b10000, 0b10001, 0b01110});
-        map.put('D', new int[]{0b11100, 0b10010, 0b10001, 0b10001, 0b10001, 0b10010, 0b11100});
-        map.put('E', new int[]{0b11111, 0b10000, 0b10000, 0b11110, 0b10000, 0b10000, 0b11111});
-        map.put('F', new int[]{0b11111, 0b10000, 0b10000, 0b11110, 0b10000, 0b10000, 0b10000});
-        map.put('G', new int[]{0b01110, 0b10001, 0b10000, 0b10111, 0b10001, 0b10001, 0b01110});
-        map.put('H', new int[]{0b10001, 0b10001, 0b10001, 0b11111, 0b10001, 0b10001, 0b10001});
-        map.put('I', new int[]{0b01110, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100, 0b01110});
-        map.put('J', new int[]{0b00001, 0b00001, 0b00001, 0b00001, 0b10001, 0b10001, 0b01110});
-        map.put('K', new int[]{0b10001, 0b10010, 0b10100, 0b11000, 0b10100, 0b10010, 0b10001});
-        map.put('L', new int[]{0b10000, 0b10000, 0b10000, 0b10000, 0b10000, 0b10000, 0b11111});
-        map.put('M', new int[]{0b10001, 0b11011, 0b10101, 0b10101, 0b10001, 0b10001, 0b10001});
-        map.put('N', new int[]{0b10001, 0b10001, 0b11001, 0b10101, 0b10011, 0b10001, 0b10001});
-        map.put('O', new int[]{0b01110, 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01110});
-        map.put('P', new int[]{0b11110, 0b10001, 0b10001, 0b11110, 0b10000, 0b10000, 0b10000});
-        map.put('Q', new int[]{0b01110, 0b10001, 0b10001, 0b10001, 0b10101, 0b10010, 0b01101});
-        map.put('R', new int[]{0b11110, 0b10001, 0b10001, 0b11110, 0b10100, 0b10010, 0b10001});
-        map.put('S', new int[]{0b01111, 0b10000, 0b10000, 0b01110, 0b00001, 0b00001, 0b11110});
-        map.put('T', new int[]{0b11111, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100});
-        map.put('U', new int[]{0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01110});
-        map.put('V', new int[]{0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01010, 0b00100});
-        map.put('W', new int[]{0b10001, 0b10001, 0b10001, 0b10101, 0b10101, 0b10101, 0b01010});
-        map.put('X', new int[]{0b10001, 0b10001, 0b01010, 0b00100, 0b01010, 0b10001, 0b10001});
-        map.put('Y', new int[]{0b10001, 0b10001, 0b01010, 0b00100, 0b00100, 0b00100, 0b00100});
-        map.put('Z', new int[]{0b11111, 0b00001, 0b00010, 0b00100, 0b01000, 0b10000, 0b11111});
-
-        return map;
-    }
-}
\ No newline at end of file
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        if (presenting) {
+            return;
+        }
+        int start = Math.max(address - vramStart, 0);
+        int end = Math.min(address + length - vramStart, width * height);
+        if (start >= end) {
+            return;
+        }
+        int firstRow = start / width;
+        int lastRow = (end - 1) / width;
+        markDirty(firstRow == lastRow ? start - firstRow * width : 0, firstRow,
+                firstRow == lastRow ? end - lastRow * width : width, lastRow + 1);
+    }
+
+    private void markDirty(int x0, int y0, int x1, int y1) {
+        for (int row = y0; row < y1; row++) {
+            dirtyFrom[row] = Math.min(dirtyFrom[row], x0);
+            dirtyTo[row] = Math.max(dirtyTo[row], x1);
+        }
+        firstDirtyRow = Math.min(firstDirtyRow, y0);
+        lastDirtyRow = Math.max(lastDirtyRow, y1 - 1);
+    }
+}
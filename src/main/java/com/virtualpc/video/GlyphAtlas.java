@@ -0,0 +1,85 @@
+package com.virtualpc.video;
+
+/**
+ * The 5x7 UI font pre-rasterized into one flat array of row bitmasks indexed by code point,
+ * bit 4 being the leftmost column. Lower-case letters share the upper-case glyphs and anything
+ * without a glyph renders as a space.
+ */
+final class GlyphAtlas {
+    static final int GLYPH_WIDTH = 5;
+    static final int GLYPH_HEIGHT = 7;
+    static final int ADVANCE = 6;
+
+    private static final int CODE_POINTS = 128;
+    private static final int[] ROWS = build();
+
+    private GlyphAtlas() {
+    }
+
+    static int row(char c, int row) {
+        return ROWS[index(c) * GLYPH_HEIGHT + row];
+    }
+
+    private static int index(char c) {
+        if (c < CODE_POINTS) {
+            return c;
+        }
+        char upper = Character.toUpperCase(c);
+        return upper < CODE_POINTS ? upper : ' ';
+    }
+
+    private static int[] build() {
+        int[] rows = new int[CODE_POINTS * GLYPH_HEIGHT];
+        glyph(rows, ' ', 0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00000);
+        glyph(rows, ':', 0b00000, 0b00100, 0b00000, 0b00000, 0b00100, 0b00000, 0b00000);
+        glyph(rows, '.', 0b00000, 0b00000, 0b00000, 0b00000, 0b00000, 0b00100, 0b00000);
+        glyph(rows, '%', 0b11001, 0b11010, 0b00100, 0b01011, 0b10011, 0b00000, 0b00000);
+        glyph(rows, '-', 0b00000, 0b00000, 0b00000, 0b11111, 0b00000, 0b00000, 0b00000);
+        glyph(rows, '/', 0b00001, 0b00010, 0b00100, 0b01000, 0b10000, 0b00000, 0b00000);
+        glyph(rows, '0', 0b01110, 0b10001, 0b10011, 0b10101, 0b11001, 0b10001, 0b01110);
+        glyph(rows, '1', 0b00100, 0b01100, 0b00100, 0b00100, 0b00100, 0b00100, 0b01110);
+        glyph(rows, '2', 0b01110, 0b10001, 0b00001, 0b00010, 0b00100, 0b01000, 0b11111);
+        glyph(rows, '3', 0b11110, 0b00001, 0b00001, 0b01110, 0b00001, 0b00001, 0b11110);
+        glyph(rows, '4', 0b00010, 0b00110, 0b01010, 0b10010, 0b11111, 0b00010, 0b00010);
+        glyph(rows, '5', 0b11111, 0b10000, 0b11110, 0b00001, 0b00001, 0b10001, 0b01110);
+        glyph(rows, '6', 0b00110, 0b01000, 0b10000, 0b11110, 0b10001, 0b10001, 0b01110);
+        glyph(rows, '7', 0b11111, 0b00001, 0b00010, 0b00100, 0b01000, 0b01000, 0b01000);
+        glyph(rows, '8', 0b01110, 0b10001, 0b10001, 0b01110, 0b10001, 0b10001, 0b01110);
+        glyph(rows, '9', 0b01110, 0b10001, 0b10001, 0b01111, 0b00001, 0b00010, 0b11100);
+        glyph(rows, 'A', 0b01110, 0b10001, 0b10001, 0b11111, 0b10001, 0b10001, 0b10001);
+        glyph(rows, 'B', 0b11110, 0b10001, 0b10001, 0b11110, 0b10001, 0b10001, 0b11110);
+        glyph(rows, 'C', 0b01110, 0b10001, 0b10000, 0b10000, 0b10000, 0b10001, 0b01110);
+        glyph(rows, 'D', 0b11100, 0b10010, 0b10001, 0b10001, 0b10001, 0b10010, 0b11100);
+        glyph(rows, 'E', 0b11111, 0b10000, 0b10000, 0b11110, 0b10000, 0b10000, 0b11111);
+        glyph(rows, 'F', 0b11111, 0b10000, 0b10000, 0b11110, 0b10000, 0b10000, 0b10000);
+        glyph(rows, 'G', 0b01110, 0b10001, 0b10000, 0b10111, 0b10001, 0b10001, 0b01110);
+        glyph(rows, 'H', 0b10001, 0b10001, 0b10001, 0b11111, 0b10001, 0b10001, 0b10001);
+        glyph(rows, 'I', 0b01110, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100, 0b01110);
+        glyph(rows, 'J', 0b00001, 0b00001, 0b00001, 0b00001, 0b10001, 0b10001, 0b01110);
+        glyph(rows, 'K', 0b10001, 0b10010, 0b10100, 0b11000, 0b10100, 0b10010, 0b10001);
+        glyph(rows, 'L', 0b10000, 0b10000, 0b10000, 0b10000, 0b10000, 0b10000, 0b11111);
+        glyph(rows, 'M', 0b10001, 0b11011, 0b10101, 0b10101, 0b10001, 0b10001, 0b10001);
+        glyph(rows, 'N', 0b10001, 0b10001, 0b11001, 0b10101, 0b10011, 0b10001, 0b10001);
+        glyph(rows, 'O', 0b01110, 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01110);
+        glyph(rows, 'P', 0b11110, 0b10001, 0b10001, 0b11110, 0b10000, 0b10000, 0b10000);
+        glyph(rows, 'Q', 0b01110, 0b10001, 0b10001, 0b10001, 0b10101, 0b10010, 0b01101);
+        glyph(rows, 'R', 0b11110, 0b10001, 0b10001, 0b11110, 0b10100, 0b10010, 0b10001);
+        glyph(rows, 'S', 0b01111, 0b10000, 0b10000, 0b01110, 0b00001, 0b00001, 0b11110);
+        glyph(rows, 'T', 0b11111, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100, 0b00100);
+        glyph(rows, 'U', 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01110);
+        glyph(rows, 'V', 0b10001, 0b10001, 0b10001, 0b10001, 0b10001, 0b01010, 0b00100);
+        glyph(rows, 'W', 0b10001, 0b10001, 0b10001, 0b10101, 0b10101, 0b10101, 0b01010);
+        glyph(rows, 'X', 0b10001, 0b10001, 0b01010, 0b00100, 0b01010, 0b10001, 0b10001);
+        glyph(rows, 'Y', 0b10001, 0b10001, 0b01010, 0b00100, 0b00100, 0b00100, 0b00100);
+        glyph(rows, 'Z', 0b11111, 0b00001, 0b00010, 0b00100, 0b01000, 0b10000, 0b11111);
+
+        for (char c = 'a'; c <= 'z'; c++) {
+            System.arraycopy(rows, Character.toUpperCase(c) * GLYPH_HEIGHT, rows, c * GLYPH_HEIGHT, GLYPH_HEIGHT);
+        }
+        return rows;
+    }
+
+    private static void glyph(int[] rows, char c, int... bitmasks) {
+        System.arraycopy(bitmasks, 0, rows, c * GLYPH_HEIGHT, GLYPH_HEIGHT);
+    }
+}
@@ -0,0 +1,58 @@
+package com.virtualpc.video;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of strings rasterized from {@link GlyphAtlas} into per-row pixel spans,
+ * so text that repeats across frames is blitted as a few fills instead of being decoded bit by bit.
+ */
+final class TextRunCache {
+    private static final int CAPACITY = 256;
+
+    private final Map<String, TextRun> runs = new LinkedHashMap<>(CAPACITY * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TextRun> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    TextRun get(String text) {
+        return runs.computeIfAbsent(text, TextRunCache::rasterize);
+    }
+
+    private static TextRun rasterize(String text) {
+        int width = (text.length() - 1) * GlyphAtlas.ADVANCE + GlyphAtlas.GLYPH_WIDTH;
+        int[][] rowSpans = new int[GlyphAtlas.GLYPH_HEIGHT][];
+        int[] spans = new int[width + 1];
+        for (int row = 0; row < GlyphAtlas.GLYPH_HEIGHT; row++) {
+            int count = 0;
+            boolean inside = false;
+            for (int px = 0; px <= width; px++) {
+                boolean lit = px < width && lit(text, row, px);
+                if (lit != inside) {
+                    spans[count++] = px;
+                    inside = lit;
+                }
+            }
+            rowSpans[row] = Arrays.copyOf(spans, count);
+        }
+        return new TextRun(width, rowSpans);
+    }
+
+    private static boolean lit(String text, int row, int px) {
+        int column = px % GlyphAtlas.ADVANCE;
+        if (column >= GlyphAtlas.GLYPH_WIDTH) {
+            return false;
+        }
+        int bits = GlyphAtlas.row(text.charAt(px / GlyphAtlas.ADVANCE), row);
+        return (bits & (1 << (GlyphAtlas.GLYPH_WIDTH - 1 - column))) != 0;
+    }
+
+    /**
+     * A rasterized string: for each glyph row, alternating start and end x offsets of lit spans.
+     */
+    record TextRun(int width, int[][] rowSpans) {
+    }
+}
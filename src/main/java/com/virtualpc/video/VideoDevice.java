@@ -1,52 +1,211 @@
 package com.virtualpc.video;
 
+import com.virtualpc.memory.MemoryWriteListener;
 import com.virtualpc.memory.Ram;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
-public final class VideoDevice {
+/**
+ * Turns VRAM into a displayable image. RAM writes into the VRAM range mark a dirty span per scanline.
+ * <p>
+ * In RGB mode each frame converts only the dirty bytes through the palette into a private pixel array.
+ * In indexed mode the image is a {@link IndexColorModel} view over VRAM itself (pinned contiguous in
+ * {@link Ram}), so nothing is converted or copied and the dirty spans only drive repaint bounds; the
+ * screen then shows guest memory live, including writes made while a frame is being painted.
+ */
+public final class VideoDevice implements MemoryWriteListener {
     private final Ram ram;
     private final int vramStart;
     private final int width;
     private final int height;
-    private final BufferedImage frame;
+    private final boolean indexed;
+    private final WritableRaster indexedRaster;
+    private volatile BufferedImage frame;
     private final int[] pixels;
     private final byte[] previousVram;
     private final int[] palette;
+    private final int[] dirtyFrom;
+    private final int[] dirtyTo;
+    private final byte[] rowBuffer;
+    private int firstDirtyRow;
+    private int lastDirtyRow = -1;
+    private Rectangle damage;
+    private boolean paletteChanged;
 
     public VideoDevice(Ram ram, int vramStart, int width, int height) {
+        this(ram, vramStart, width, height, false);
+    }
+
+    public VideoDevice(Ram ram, int vramStart, int width, int height, boolean indexed) {
         this.ram = ram;
         this.vramStart = vramStart;
         this.width = width;
         this.height = height;
-        this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        this.pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
-        this.previousVram = new byte[width * height];
+        this.indexed = indexed;
         this.palette = buildPalette();
+        if (indexed) {
+            int pinStart = vramStart & -Ram.PAGE_SIZE;
+            int pinEnd = (vramStart + width * height + Ram.PAGE_SIZE - 1) & -Ram.PAGE_SIZE;
+            byte[] vram = ram.pin(pinStart, pinEnd - pinStart);
+            DataBufferByte buffer = new DataBufferByte(vram, width * height, vramStart - pinStart);
+            this.indexedRaster = Raster.createInterleavedRaster(buffer, width, height, width, 1, new int[]{0}, null);
+            this.frame = new BufferedImage(colorModel(palette), indexedRaster, false, null);
+            this.pixels = null;
+            this.previousVram = null;
+            this.rowBuffer = null;
+        } else {
+            this.indexedRaster = null;
+            this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            this.pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            this.previousVram = new byte[width * height];
+            this.rowBuffer = new byte[width];
+        }
+        this.dirtyFrom = new int[height];
+        this.dirtyTo = new int[height];
+        Arrays.fill(dirtyFrom, width);
+        firstDirtyRow = height;
+        ram.addWriteListener(this);
+    }
+
+    @Override
+    public void onMemoryWrite(int address, int length) {
+        int start = Math.max(address - vramStart, 0);
+        int end = Math.min(address + length - vramStart, width * height);
+        if (start >= end) {
+            return;
+        }
+
+        int firstRow = start / width;
+        int lastRow = (end - 1) / width;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int from = row == firstRow ? start - row * width : 0;
+            int to = row == lastRow ? end - row * width : width;
+            dirtyFrom[row] = Math.min(dirtyFrom[row], from);
+            dirtyTo[row] = Math.max(dirtyTo[row], to);
+        }
+        firstDirtyRow = Math.min(firstDirtyRow, firstRow);
+        lastDirtyRow = Math.max(lastDirtyRow, lastRow);
     }
 
     public boolean renderFrame() {
-        boolean changed = false;
-        int total = width * height;
-
-        for (int i = 0; i < total; i++) {
-            int paletteIndex = ram.readByte(vramStart + i);
-            byte rawValue = (byte) (paletteIndex & 0xFF);
-            if (previousVram[i] != rawValue) {
-                previousVram[i] = rawValue;
-                pixels[i] = palette[paletteIndex];
-                changed = true;
+        if (indexed) {
+            return collectDamage();
+        }
+
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+
+        BufferedImage frame = this.frame;
+        synchronized (frame) {
+            for (int row = firstDirtyRow; row <= lastDirtyRow; row++) {
+                int from = dirtyFrom[row];
+                int to = dirtyTo[row];
+                if (from >= to) {
+                    continue;
+                }
+                dirtyFrom[row] = width;
+                dirtyTo[row] = 0;
+
+                int rowStart = row * width;
+                ram.readBlock(vramStart + rowStart + from, rowBuffer, from, to - from);
+                for (int x = from; x < to; x++) {
+                    byte rawValue = rowBuffer[x];
+                    if (previousVram[rowStart + x] != rawValue) {
+                        previousVram[rowStart + x] = rawValue;
+                        pixels[rowStart + x] = palette[rawValue & 0xFF];
+                        minX = Math.min(minX, x);
+                        maxX = Math.max(maxX, x);
+                        minY = Math.min(minY, row);
+                        maxY = row;
+                    }
+                }
+            }
+        }
+        firstDirtyRow = height;
+        lastDirtyRow = -1;
+
+        damage = paletteChanged ? new Rectangle(0, 0, width, height)
+                : maxX < 0 ? null : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        paletteChanged = false;
+        return damage != null;
+    }
+
+    /**
+     * Replaces one palette entry. Indexed mode only swaps the color model; RGB mode reconverts
+     * the pixels currently showing that index.
+     */
+    public void setPaletteEntry(int index, int rgb) {
+        int entry = index & 0xFF;
+        palette[entry] = rgb & 0xFFFFFF;
+        if (indexed) {
+            frame = new BufferedImage(colorModel(palette), indexedRaster, false, null);
+            paletteChanged = true;
+            return;
+        }
+        BufferedImage frame = this.frame;
+        synchronized (frame) {
+            for (int i = 0; i < previousVram.length; i++) {
+                if ((previousVram[i] & 0xFF) == entry) {
+                    pixels[i] = palette[entry];
+                }
             }
         }
+        paletteChanged = true;
+    }
 
-        return changed;
+    /**
+     * Bounds, in VRAM pixels, of everything the last {@link #renderFrame()} changed, or {@code null} if nothing did.
+     */
+    public Rectangle damage() {
+        return damage;
     }
 
     public BufferedImage frame() {
         return frame;
     }
 
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    private boolean collectDamage() {
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int row = firstDirtyRow; row <= lastDirtyRow; row++) {
+            if (dirtyFrom[row] < dirtyTo[row]) {
+                minX = Math.min(minX, dirtyFrom[row]);
+                maxX = Math.max(maxX, dirtyTo[row] - 1);
+                minY = Math.min(minY, row);
+                maxY = row;
+                dirtyFrom[row] = width;
+                dirtyTo[row] = 0;
+            }
+        }
+        firstDirtyRow = height;
+        lastDirtyRow = -1;
+
+        damage = paletteChanged ? new Rectangle(0, 0, width, height)
+                : maxX < 0 ? null : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        paletteChanged = false;
+        return damage != null;
+    }
+
+    private static IndexColorModel colorModel(int[] palette) {
+        return new IndexColorModel(8, palette.length, palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+    }
+
     private static int[] buildPalette() {
         int[] colors = new int[256];
         for (int i = 0; i < colors.length; i++) {
@@ -0,0 +1,227 @@
+package com.virtualpc.cpu;
+
+import com.virtualpc.memory.Ram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the same guest programs on every {@link CpuBackend} and with an {@link ExecutionProfiler} attached,
+ * which steps each instruction through the reference interpreter, and requires identical registers,
+ * memory and cycle counts.
+ */
+class BackendEquivalenceTest {
+    private static final int CYCLES_PER_FRAME = 3_000;
+    private static final int HANDLER = 0x40;
+
+    @Test
+    void busyCounterLoop() {
+        // LDA #0; loop: ADD #1; STA 0x9000; JMP loop
+        assertEquivalent(image(0x0000, 0x01, 0x00, 0x04, 0x01, 0x02, 0x90, 0x00, 0x05, 0x00, 0x02), 20, false);
+    }
+
+    @Test
+    void idleLoopOverSeveralMemoryCells() {
+        // loop: LDA 0x9000; ADD #3; STA 0x9000; LDA 0x9001; SUB #1; STA 0x9001; STA 0x9002; JMP loop
+        assertEquivalent(image(0x0000,
+                0x03, 0x90, 0x00,
+                0x04, 0x03,
+                0x02, 0x90, 0x00,
+                0x03, 0x90, 0x01,
+                0x07, 0x01,
+                0x02, 0x90, 0x01,
+                0x02, 0x90, 0x02,
+                0x05, 0x00, 0x00), 50, false);
+    }
+
+    @Test
+    void selfModifyingCode() {
+        // LDA #0; loop: ADD #1; STA 0x9000; LDA 0x0003; ADD #1; STA 0x0003; LDA 0x9000; JMP loop
+        assertEquivalent(image(0x0000,
+                0x01, 0x00,
+                0x04, 0x01,
+                0x02, 0x90, 0x00,
+                0x03, 0x00, 0x03,
+                0x04, 0x01,
+                0x02, 0x00, 0x03,
+                0x03, 0x90, 0x00,
+                0x05, 0x00, 0x02), 20, false);
+    }
+
+    @Test
+    void straightLineStoresThenHalt() {
+        // LDA #n; STA 0x8000 + n for n = 0..39, then HALT
+        byte[] image = new byte[0x100];
+        for (int n = 0; n < 40; n++) {
+            place(image, n * 5, 0x01, n, 0x02, 0x80, n);
+        }
+        image[200] = (byte) 0xFF;
+        assertEquivalent(image, 2, false);
+    }
+
+    @Test
+    void timerInterruptDuringIdleLoop() {
+        // Vector line 0 -> handler, unmask the timer, reload 0x2000 guest cycles, start it, EI; then JMP loop.
+        byte[] image = image(0x0000,
+                0x01, HANDLER >> 8, 0x02, 0x7D, 0x10,
+                0x01, HANDLER & 0xFF, 0x02, 0x7D, 0x11,
+                0x01, 0x01, 0x02, 0x7D, 0x01,
+                0x01, 0x20, 0x02, 0x7C, 0x01,
+                0x01, 0x00, 0x02, 0x7C, 0x02,
+                0x01, 0x03, 0x02, 0x7C, 0x00,
+                0x09,
+                0x05, 0x00, 0x30);
+        // loop: LDA 0x1000; ADD #1; STA 0x2000; JMP loop
+        place(image, 0x0030, 0x03, 0x10, 0x00, 0x04, 0x01, 0x02, 0x20, 0x00, 0x05, 0x00, 0x30);
+        // handler: LDA 0x9000; ADD #1; STA 0x9000; RTI
+        place(image, HANDLER, 0x03, 0x90, 0x00, 0x04, 0x01, 0x02, 0x90, 0x00, 0x0B);
+        assertEquivalent(image, 10, false);
+    }
+
+    @Test
+    void timerHandlerRemapsIdleLoopData() {
+        // A guest-clock timer fires every 0x2000 cycles; its handler maps window 2 onto frame 1,
+        // so the loop's store target starts aliasing its load source mid-run.
+        byte[] image = image(0x0000,
+                0x01, HANDLER >> 8, 0x02, 0x7D, 0x10,
+                0x01, HANDLER & 0xFF, 0x02, 0x7D, 0x11,
+                0x01, 0x01, 0x02, 0x7D, 0x01,
+                0x01, 0x20, 0x02, 0x7C, 0x01,
+                0x01, 0x00, 0x02, 0x7C, 0x02,
+                0x01, 0x03, 0x02, 0x7C, 0x00,
+                0x09,
+                0x05, 0x00, 0x30);
+        // loop: LDA 0x1000; ADD #1; STA 0x2000; JMP loop
+        place(image, 0x0030, 0x03, 0x10, 0x00, 0x04, 0x01, 0x02, 0x20, 0x00, 0x05, 0x00, 0x30);
+        // handler: LDA #1; STA 0x7F02; RTI
+        place(image, HANDLER, 0x01, 0x01, 0x02, 0x7F, 0x02, 0x0B);
+        assertEquivalent(image, 10, false);
+    }
+
+    @Test
+    void timerHandlerPatchesIdleLoopCode() {
+        // Same timer as above; the handler bumps the loop's ADD immediate, so the loop's summary must be
+        // dropped while the handler's own code keeps running.
+        byte[] image = image(0x0000,
+                0x01, HANDLER >> 8, 0x02, 0x7D, 0x10,
+                0x01, HANDLER & 0xFF, 0x02, 0x7D, 0x11,
+                0x01, 0x01, 0x02, 0x7D, 0x01,
+                0x01, 0x20, 0x02, 0x7C, 0x01,
+                0x01, 0x00, 0x02, 0x7C, 0x02,
+                0x01, 0x03, 0x02, 0x7C, 0x00,
+                0x09,
+                0x05, 0x00, 0x30);
+        // loop: LDA 0x1000; ADD #1; STA 0x1000; JMP loop
+        place(image, 0x0030, 0x03, 0x10, 0x00, 0x04, 0x01, 0x02, 0x10, 0x00, 0x05, 0x00, 0x30);
+        // handler: LDA 0x0034; ADD #2; STA 0x0034; RTI
+        place(image, HANDLER, 0x03, 0x00, 0x34, 0x04, 0x02, 0x02, 0x00, 0x34, 0x0B);
+        assertEquivalent(image, 10, false);
+    }
+
+    @Test
+    void storeRemappedOntoItsOwnBlockAfterCompilation() {
+        // The handler maps window 2 onto frame 0, so once the loop is hot its STA 0x206F starts
+        // patching the immediate of the ADD three bytes further on. A reload of 0x2001 lands the
+        // first interrupt past that store, so the loop re-enters its block compiled before the remap.
+        byte[] image = image(0x0000,
+                0x01, HANDLER >> 8, 0x02, 0x7D, 0x10,
+                0x01, HANDLER & 0xFF, 0x02, 0x7D, 0x11,
+                0x01, 0x01, 0x02, 0x7D, 0x01,
+                0x01, 0x20, 0x02, 0x7C, 0x01,
+                0x01, 0x01, 0x02, 0x7C, 0x02,
+                0x01, 0x03, 0x02, 0x7C, 0x00,
+                0x09,
+                0x05, 0x00, 0x60);
+        // loop: LDA 0x1000; ADD #1; STA 0x1000; STA 0x206F; LDA 0x9000; ADD #n; STA 0x9000; LDA #0; JZ loop
+        // (the JZ keeps the idle-loop detector out of the way)
+        place(image, 0x0060,
+                0x03, 0x10, 0x00,
+                0x04, 0x01,
+                0x02, 0x10, 0x00,
+                0x02, 0x20, 0x6F,
+                0x03, 0x90, 0x00,
+                0x04, 0x00,
+                0x02, 0x90, 0x00,
+                0x01, 0x00,
+                0x06, 0x00, 0x60);
+        // handler: LDA #0; STA 0x7F02; RTI
+        place(image, HANDLER, 0x01, 0x00, 0x02, 0x7F, 0x02, 0x0B);
+        assertEquivalent(image, 10, false);
+    }
+
+    @Test
+    void vsyncInterruptWithWait() {
+        // vector line 1 -> handler, unmask vsync, EI; loop: WAIT; JMP loop
+        byte[] image = image(0x0000,
+                0x01, HANDLER >> 8, 0x02, 0x7D, 0x12,
+                0x01, HANDLER & 0xFF, 0x02, 0x7D, 0x13,
+                0x01, 0x02, 0x02, 0x7D, 0x01,
+                0x09,
+                0x08, 0x05, 0x00, 0x10);
+        // handler: LDA 0x8000; ADD #0x11; STA 0x8000; RTI
+        place(image, HANDLER, 0x03, 0x80, 0x00, 0x04, 0x11, 0x02, 0x80, 0x00, 0x0B);
+        assertEquivalent(image, 30, true);
+    }
+
+    @Test
+    void blockInstructions() {
+        // LDA #7; loop: LDX 0x8000; FILL 0x1000; LDY 0x8000; LDX 0x8010; COPY 0x0800;
+        // LDX 0x8000; LDY 0x8010; COPY 0x0400; LDX 0x9005; RECT 32,16,0x0100; ADD #1; STA 0x7000; JMP loop
+        assertEquivalent(image(0x0000,
+                0x01, 0x07,
+                0x0C, 0x80, 0x00, 0x0E, 0x10, 0x00,
+                0x0D, 0x80, 0x00, 0x0C, 0x80, 0x10, 0x0F, 0x08, 0x00,
+                0x0C, 0x80, 0x00, 0x0D, 0x80, 0x10, 0x0F, 0x04, 0x00,
+                0x0C, 0x90, 0x05, 0x10, 0x20, 0x10, 0x01, 0x00,
+                0x04, 0x01,
+                0x02, 0x70, 0x00,
+                0x05, 0x00, 0x02), 20, false);
+    }
+
+    private static void assertEquivalent(byte[] image, int frames, boolean vsync) {
+        Snapshot reference = run(image, CpuBackend.INTERPRETER, true, frames, vsync);
+        for (CpuBackend backend : CpuBackend.values()) {
+            Snapshot fast = run(image, backend, false, frames, vsync);
+            assertEquals(reference.registers(), fast.registers(), backend.name());
+            assertArrayEquals(reference.memory(), fast.memory(), backend.name());
+        }
+    }
+
+    private static Snapshot run(byte[] image, CpuBackend backend, boolean profiled, int frames, boolean vsync) {
+        Ram ram = new Ram(0x10000);
+        ram.writeBlock(0, image);
+        Cpu cpu = new Cpu(ram, 0, backend);
+        if (profiled) {
+            cpu.setProfiler(new ExecutionProfiler());
+        }
+        long cycles = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (vsync) {
+                cpu.interrupts().raise(InterruptController.IRQ_VSYNC);
+            }
+            cycles += cpu.run(CYCLES_PER_FRAME);
+        }
+        byte[] memory = new byte[ram.size()];
+        ram.readBlock(0, memory);
+        String registers = "PC=" + cpu.getProgramCounter() + " A=" + cpu.getRegisterA()
+                + " X=" + cpu.getIndexX() + " Y=" + cpu.getIndexY() + " halted=" + cpu.isHalted()
+                + " waiting=" + cpu.isWaiting() + " cycles=" + cycles;
+        return new Snapshot(registers, memory);
+    }
+
+    private static byte[] image(int start, int... bytes) {
+        byte[] image = new byte[0x100];
+        place(image, start, bytes);
+        return image;
+    }
+
+    private static void place(byte[] image, int start, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            image[start + i] = (byte) bytes[i];
+        }
+    }
+
+    private record Snapshot(String registers, byte[] memory) {
+    }
+}
@@ -0,0 +1,80 @@
+package com.virtualpc.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RamTest {
+    @Test
+    void forkSharesPagesUntilEitherSideWrites() {
+        Ram parent = new Ram(0x10000);
+        parent.writeByte(0x1234, 0x11);
+        Ram child = parent.fork();
+        assertEquals(0, child.privatePageCount());
+
+        child.writeByte(0x1234, 0x22);
+        parent.writeByte(0x5678, 0x33);
+
+        assertEquals(0x11, parent.readByte(0x1234));
+        assertEquals(0x22, child.readByte(0x1234));
+        assertEquals(0x33, parent.readByte(0x5678));
+        assertEquals(0, child.readByte(0x5678));
+        assertEquals(1, child.privatePageCount());
+    }
+
+    @Test
+    void pinnedRangeIsBackingStoreAndForkGetsItsOwnCopy() {
+        Ram ram = new Ram(0x10000);
+        ram.writeByte(0x8001, 0x44);
+        byte[] pinned = ram.pin(0x8000, 0x2000);
+        assertEquals(0x44, pinned[1]);
+
+        ram.writeByte(0x9FFF, 0x55);
+        assertEquals(0x55, pinned[0x1FFF]);
+
+        Ram child = ram.fork();
+        child.writeByte(0x8001, 0x66);
+        assertEquals(0x44, pinned[1]);
+        assertEquals(0x66, child.readByte(0x8001));
+    }
+
+    @Test
+    void bulkFillAndCopyMatchByteWiseMemmove() {
+        Random random = new Random(7);
+        byte[] expected = new byte[0x10000];
+        random.nextBytes(expected);
+        Ram ram = new Ram(0x10000);
+        ram.writeBlock(0, expected);
+        byte[] original = expected.clone();
+        Ram shared = ram.fork();
+
+        for (int i = 0; i < 500; i++) {
+            int length = random.nextInt(9_000);
+            int destination = random.nextInt(0x10000 - length);
+            int source = random.nextBoolean()
+                    ? random.nextInt(0x10000 - length)
+                    : Math.max(0, Math.min(0x10000 - length - 1, destination + random.nextInt(64) - 32));
+            if (random.nextInt(3) == 0) {
+                int value = random.nextInt(256);
+                ram.fill(destination, length, value);
+                for (int b = 0; b < length; b++) {
+                    expected[destination + b] = (byte) value;
+                }
+            } else {
+                ram.copy(destination, source, length);
+                System.arraycopy(expected, source, expected, destination, length);
+            }
+        }
+
+        byte[] actual = new byte[0x10000];
+        ram.readBlock(0, actual);
+        assertArrayEquals(expected, actual);
+        byte[] forked = new byte[0x10000];
+        shared.readBlock(0, forked);
+        assertArrayEquals(original, forked);
+        assertEquals(0, shared.privatePageCount());
+    }
+}
@@ -0,0 +1,50 @@
+package com.virtualpc.os.fs;
+
+import com.virtualpc.storage.BlockDevice;
+import com.virtualpc.storage.VirtualDisk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskFileSystemTest {
+    private static final int DISK_BYTES = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void filesSurviveRemount() throws IOException {
+        Path image = directory.resolve("disk.bin");
+        try (VirtualDisk disk = new VirtualDisk(image, DISK_BYTES)) {
+            DiskFileSystem fileSystem = new DiskFileSystem(disk);
+            Path docs = fileSystem.mkdir(fileSystem.root(), "NOTES");
+            fileSystem.writeFile(fileSystem.touch(docs, "A.TXT"), "hello ".repeat(2_000));
+        }
+
+        try (VirtualDisk disk = new VirtualDisk(image, DISK_BYTES)) {
+            DiskFileSystem fileSystem = new DiskFileSystem(disk);
+            Path docs = fileSystem.resolve(fileSystem.root(), "NOTES");
+            assertTrue(fileSystem.isDirectory(docs));
+            assertEquals("hello ".repeat(2_000), fileSystem.readFile(fileSystem.resolve(docs, "A.TXT")));
+        }
+    }
+
+    @Test
+    void refusesToFormatADiskHoldingOtherData() throws IOException {
+        try (VirtualDisk disk = new VirtualDisk(directory.resolve("raw.bin"), DISK_BYTES)) {
+            ByteBuffer sector = ByteBuffer.allocate(BlockDevice.SECTOR_SIZE);
+            sector.put(100, (byte) 1);
+            disk.write(0, sector);
+
+            assertThrows(IOException.class, () -> new DiskFileSystem(disk));
+            assertEquals(1, disk.readByte(100));
+        }
+    }
+}
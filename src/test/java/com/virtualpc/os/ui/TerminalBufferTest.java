@@ -0,0 +1,122 @@
+package com.virtualpc.os.ui;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TerminalBufferTest {
+    private static final int ROWS = 5;
+
+    @Test
+    void ringOverwritesOldestLinesOnceFull() {
+        TerminalBuffer buffer = filled(3, 5);
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.firstLine());
+        assertEquals(5, buffer.endLine());
+        assertEquals("LINE 2", buffer.line(2));
+        assertEquals("LINE 4", buffer.line(4));
+        assertThrows(IllegalArgumentException.class, () -> buffer.line(1));
+    }
+
+    @Test
+    void ringGrowsPastItsInitialSlotsBeforeWrapping() {
+        TerminalBuffer buffer = filled(1_000, 1_500);
+
+        assertEquals(1_000, buffer.size());
+        assertEquals(500, buffer.firstLine());
+        assertEquals("LINE 500", buffer.line(500));
+        assertEquals("LINE 999", buffer.line(999));
+        assertEquals("LINE 1499", buffer.line(1_499));
+    }
+
+    @Test
+    void wrappedTextKeepsEveryLineAndSplitsLongOnes() {
+        TerminalBuffer buffer = new TerminalBuffer(100);
+        buffer.appendWrapped("FIRST\r\n\nABCDEFGHIJ\tKL\nLAST\n", 5);
+
+        assertEquals(6, buffer.size());
+        assertEquals("FIRST", buffer.line(0));
+        assertEquals("", buffer.line(1));
+        assertEquals("ABCDE", buffer.line(2));
+        assertEquals("FGHIJ", buffer.line(3));
+        assertEquals(" KL", buffer.line(4));
+        assertEquals("LAST", buffer.line(5));
+        assertTrue(buffer.find("fghij", ROWS));
+        assertEquals(3, buffer.match());
+    }
+
+    @Test
+    void scrolledBackViewStaysOnTheSameLinesWhileOutputArrives() {
+        TerminalBuffer buffer = filled(100, 20);
+        buffer.scrollBy(3, ROWS);
+        assertEquals(12, buffer.viewStart(ROWS));
+        assertEquals(17, buffer.viewEnd(ROWS));
+
+        buffer.append("LINE 20");
+        buffer.append("LINE 21");
+        assertEquals(12, buffer.viewStart(ROWS));
+        assertEquals(17, buffer.viewEnd(ROWS));
+
+        buffer.scrollToBottom();
+        buffer.append("LINE 22");
+        assertEquals(18, buffer.viewStart(ROWS));
+        assertEquals(23, buffer.viewEnd(ROWS));
+    }
+
+    @Test
+    void scrolledBackViewFollowsItsLinesUntilTheRingDropsThem() {
+        TerminalBuffer buffer = filled(10, 10);
+        buffer.scrollToTop(ROWS);
+        assertEquals(0, buffer.viewStart(ROWS));
+
+        buffer.append("LINE 10");
+        buffer.append("LINE 11");
+        assertEquals(2, buffer.viewStart(ROWS));
+        assertEquals(7, buffer.viewEnd(ROWS));
+    }
+
+    @Test
+    void findContinuesFromThePreviousMatch() {
+        TerminalBuffer buffer = new TerminalBuffer(100);
+        for (int i = 0; i < 20; i++) {
+            buffer.append(i == 3 || i == 10 || i == 15 ? "error at " + i : "ok " + i);
+        }
+
+        assertTrue(buffer.find("ERROR", ROWS));
+        assertEquals(15, buffer.match());
+        assertEquals(0, buffer.scroll());
+
+        assertTrue(buffer.find("", ROWS));
+        assertEquals(10, buffer.match());
+        assertTrue(buffer.viewStart(ROWS) <= 10 && 10 < buffer.viewEnd(ROWS));
+
+        assertTrue(buffer.find("error", ROWS));
+        assertEquals(3, buffer.match());
+        assertTrue(buffer.viewStart(ROWS) <= 3 && 3 < buffer.viewEnd(ROWS));
+
+        assertFalse(buffer.find("", ROWS));
+        assertEquals(3, buffer.match());
+    }
+
+    @Test
+    void matchIsForgottenOnceTheRingOverwritesIt() {
+        TerminalBuffer buffer = filled(4, 4);
+        assertTrue(buffer.find("LINE 0", ROWS));
+        assertEquals(0, buffer.match());
+
+        buffer.append("LINE 4");
+        assertEquals(-1, buffer.match());
+    }
+
+    private static TerminalBuffer filled(int capacity, int lines) {
+        TerminalBuffer buffer = new TerminalBuffer(capacity);
+        for (int i = 0; i < lines; i++) {
+            buffer.append("LINE " + i);
+        }
+        return buffer;
+    }
+}
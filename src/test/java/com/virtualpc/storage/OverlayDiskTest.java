@@ -0,0 +1,117 @@
+package com.virtualpc.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OverlayDiskTest {
+    private static final int DISK_BYTES = 64 * OverlayDisk.CLUSTER_SIZE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesRoundTripThroughTheDeltaAndLeaveTheBaseUntouched() throws IOException {
+        Path basePath = createBase();
+        byte[] baseBefore = Files.readAllBytes(basePath);
+        Path deltaPath = directory.resolve("machine.ovl");
+        byte[] compressible = new byte[OverlayDisk.CLUSTER_SIZE];
+        Arrays.fill(compressible, (byte) 0x5A);
+        byte[] random = new byte[3 * BlockDevice.SECTOR_SIZE];
+        new Random(3).nextBytes(random);
+
+        try (OverlayDisk disk = new OverlayDisk(basePath, deltaPath, 4, true)) {
+            disk.write(0, ByteBuffer.wrap(compressible));
+            disk.write(17, ByteBuffer.wrap(random));
+            disk.flush();
+            assertEquals(2, disk.allocatedClusters());
+        }
+
+        try (OverlayDisk disk = new OverlayDisk(basePath, deltaPath, 4, true)) {
+            assertArrayEquals(compressible, read(disk, 0, compressible.length));
+            assertArrayEquals(random, read(disk, 17, random.length));
+            byte[] untouched = read(disk, 40 * OverlayDisk.CLUSTER_SIZE / BlockDevice.SECTOR_SIZE, OverlayDisk.CLUSTER_SIZE);
+            assertArrayEquals(Arrays.copyOfRange(baseBefore, 40 * OverlayDisk.CLUSTER_SIZE, 41 * OverlayDisk.CLUSTER_SIZE), untouched);
+            assertTrue(disk.deltaBytes() < 3L * OverlayDisk.CLUSTER_SIZE, "compressible cluster stored deflated");
+        }
+        assertArrayEquals(baseBefore, Files.readAllBytes(basePath));
+    }
+
+    @Test
+    void overlaysOnOneBaseStayIsolated() throws IOException {
+        Path basePath = createBase();
+        byte[] baseBefore = Files.readAllBytes(basePath);
+        byte[] first = new byte[BlockDevice.SECTOR_SIZE];
+        Arrays.fill(first, (byte) 0x11);
+        byte[] second = new byte[BlockDevice.SECTOR_SIZE];
+        Arrays.fill(second, (byte) 0x22);
+
+        try (OverlayDisk a = new OverlayDisk(basePath, directory.resolve("a.ovl"), 4, true);
+             OverlayDisk b = new OverlayDisk(basePath, directory.resolve("b.ovl"), 4, true)) {
+            a.write(5, ByteBuffer.wrap(first));
+            b.write(5, ByteBuffer.wrap(second));
+            a.flush();
+            b.flush();
+            assertArrayEquals(first, read(a, 5, first.length));
+            assertArrayEquals(second, read(b, 5, second.length));
+            assertArrayEquals(Arrays.copyOfRange(baseBefore, 6 * BlockDevice.SECTOR_SIZE, 7 * BlockDevice.SECTOR_SIZE),
+                    read(a, 6, BlockDevice.SECTOR_SIZE));
+        }
+        assertArrayEquals(baseBefore, Files.readAllBytes(basePath));
+    }
+
+    @Test
+    void commitWritesANewBaseAndLeavesTheSharedOneAlone() throws IOException {
+        Path basePath = createBase();
+        byte[] baseBefore = Files.readAllBytes(basePath);
+        byte[] expected = baseBefore.clone();
+        byte[] data = new byte[2 * BlockDevice.SECTOR_SIZE];
+        new Random(5).nextBytes(data);
+        long sector = 9 * OverlayDisk.CLUSTER_SIZE / BlockDevice.SECTOR_SIZE + 3;
+        System.arraycopy(data, 0, expected, (int) sector * BlockDevice.SECTOR_SIZE, data.length);
+        Path merged = directory.resolve("merged.img");
+
+        try (OverlayDisk disk = new OverlayDisk(basePath, directory.resolve("machine.ovl"), 4, true);
+             OverlayDisk other = new OverlayDisk(basePath, directory.resolve("other.ovl"), 4, true)) {
+            disk.write(sector, ByteBuffer.wrap(data));
+            disk.commit(merged);
+            assertEquals(0, disk.allocatedClusters());
+            assertArrayEquals(data, read(disk, sector, data.length));
+            assertArrayEquals(Arrays.copyOfRange(baseBefore, (int) sector * BlockDevice.SECTOR_SIZE,
+                    (int) sector * BlockDevice.SECTOR_SIZE + data.length), read(other, sector, data.length));
+            assertThrows(FileAlreadyExistsException.class, () -> disk.commit(merged));
+            assertThrows(FileAlreadyExistsException.class, () -> other.commit(basePath));
+        }
+        assertArrayEquals(baseBefore, Files.readAllBytes(basePath));
+        assertArrayEquals(expected, Files.readAllBytes(merged));
+        try (OverlayDisk reopened = new OverlayDisk(merged, directory.resolve("machine.ovl"), 4, true)) {
+            assertArrayEquals(data, read(reopened, sector, data.length));
+        }
+    }
+
+    private Path createBase() throws IOException {
+        byte[] image = new byte[DISK_BYTES];
+        new Random(1).nextBytes(image);
+        Path basePath = directory.resolve("base.img");
+        Files.write(basePath, image);
+        return basePath;
+    }
+
+    private static byte[] read(BlockDevice disk, long sector, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        disk.read(sector, buffer);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,96 @@
+package com.virtualpc.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VirtualDiskTest {
+    private static final int SIZE = 64 * 1024;
+    private static final int SECTORS = SIZE / BlockDevice.SECTOR_SIZE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void smallCacheMatchesByteArrayModelAndPersists() throws IOException {
+        Path path = directory.resolve("disk.bin");
+        byte[] model = new byte[SIZE];
+        Random random = new Random(16);
+
+        try (VirtualDisk disk = new VirtualDisk(path, SIZE, 3)) {
+            for (int i = 0; i < 5_000; i++) {
+                switch (random.nextInt(6)) {
+                    case 0 -> {
+                        int offset = random.nextInt(SIZE);
+                        int value = random.nextInt(256);
+                        disk.writeByte(offset, value);
+                        model[offset] = (byte) value;
+                    }
+                    case 1 -> {
+                        int offset = random.nextInt(SIZE);
+                        assertEquals(model[offset] & 0xFF, disk.readByte(offset));
+                    }
+                    case 2 -> {
+                        int count = 1 + random.nextInt(20);
+                        int sector = random.nextInt(SECTORS - count + 1);
+                        byte[] data = new byte[count * BlockDevice.SECTOR_SIZE];
+                        random.nextBytes(data);
+                        disk.write(sector, ByteBuffer.wrap(data));
+                        System.arraycopy(data, 0, model, sector * BlockDevice.SECTOR_SIZE, data.length);
+                    }
+                    case 3 -> {
+                        int count = 1 + random.nextInt(20);
+                        int sector = random.nextInt(SECTORS - count + 1);
+                        ByteBuffer target = ByteBuffer.allocate(count * BlockDevice.SECTOR_SIZE);
+                        disk.read(sector, target);
+                        assertArrayEquals(slice(model, sector, count), target.array());
+                    }
+                    case 4 -> {
+                        int first = 1 + random.nextInt(4);
+                        int second = 1 + random.nextInt(12);
+                        int sector = random.nextInt(SECTORS - first - second + 1);
+                        byte[] a = new byte[first * BlockDevice.SECTOR_SIZE];
+                        byte[] b = new byte[second * BlockDevice.SECTOR_SIZE];
+                        random.nextBytes(a);
+                        random.nextBytes(b);
+                        disk.write(sector, new ByteBuffer[] {ByteBuffer.wrap(a), ByteBuffer.wrap(b)});
+                        System.arraycopy(a, 0, model, sector * BlockDevice.SECTOR_SIZE, a.length);
+                        System.arraycopy(b, 0, model, (sector + first) * BlockDevice.SECTOR_SIZE, b.length);
+                    }
+                    default -> {
+                        int first = 1 + random.nextInt(4);
+                        int second = 1 + random.nextInt(12);
+                        int sector = random.nextInt(SECTORS - first - second + 1);
+                        ByteBuffer a = ByteBuffer.allocate(first * BlockDevice.SECTOR_SIZE);
+                        ByteBuffer b = ByteBuffer.allocate(second * BlockDevice.SECTOR_SIZE);
+                        disk.read(sector, new ByteBuffer[] {a, b});
+                        assertArrayEquals(slice(model, sector, first), a.array());
+                        assertArrayEquals(slice(model, sector + first, second), b.array());
+                    }
+                }
+                if (i % 1_000 == 999) {
+                    disk.flush();
+                }
+            }
+        }
+
+        try (VirtualDisk reopened = new VirtualDisk(path, SIZE, 3)) {
+            ByteBuffer all = ByteBuffer.allocate(SIZE);
+            reopened.read(0, all);
+            assertArrayEquals(model, all.array());
+        }
+    }
+
+    private static byte[] slice(byte[] model, int sector, int count) {
+        byte[] slice = new byte[count * BlockDevice.SECTOR_SIZE];
+        System.arraycopy(model, sector * BlockDevice.SECTOR_SIZE, slice, 0, slice.length);
+        return slice;
+    }
+}
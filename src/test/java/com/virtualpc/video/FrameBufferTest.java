@@ -0,0 +1,79 @@
+package com.virtualpc.video;
+
+import com.virtualpc.memory.Ram;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class FrameBufferTest {
+    private static final int VRAM_START = 0x8000;
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+
+    @Test
+    void drawTextMatchesPerPixelGlyphDrawing() {
+        assertSameVram(null,
+                new Text(0, 0, "HELLO, WORLD 0123456789", 15),
+                new Text(3, 20, "lower case: abc xyz", 7),
+                new Text(10, 40, "non-ascii: \u00E9\u00DF\u2603\u00C4", 9),
+                new Text(3, 60, "HELLO, WORLD 0123456789", 4));
+    }
+
+    @Test
+    void drawTextMatchesPerPixelGlyphDrawingWhenClipped() {
+        assertSameVram(new Rectangle(20, 10, 100, 40),
+                new Text(-7, 8, "CLIPPED LEFT AND TOP", 12),
+                new Text(90, 45, "CLIPPED RIGHT AND BOTTOM", 5),
+                new Text(0, 200, "OUTSIDE", 3));
+    }
+
+    private static void assertSameVram(Rectangle clip, Text... texts) {
+        Ram expectedRam = new Ram(0x10000);
+        FrameBuffer expected = new FrameBuffer(expectedRam, VRAM_START, WIDTH, HEIGHT);
+        Ram actualRam = new Ram(0x10000);
+        FrameBuffer actual = new FrameBuffer(actualRam, VRAM_START, WIDTH, HEIGHT);
+        if (clip != null) {
+            expected.setClip(clip);
+            actual.setClip(clip);
+        }
+
+        for (Text text : texts) {
+            drawPerPixel(expected, text);
+            actual.drawText(text.x(), text.y(), text.value(), text.color());
+        }
+        expected.present();
+        actual.present();
+
+        assertArrayEquals(vram(expectedRam), vram(actualRam));
+    }
+
+    /**
+     * The renderer before the atlas: upper-case each character and plot its glyph one pixel at a time.
+     */
+    private static void drawPerPixel(FrameBuffer frameBuffer, Text text) {
+        int cursorX = text.x();
+        for (int i = 0; i < text.value().length(); i++) {
+            char c = Character.toUpperCase(text.value().charAt(i));
+            for (int row = 0; row < GlyphAtlas.GLYPH_HEIGHT; row++) {
+                int rowMask = GlyphAtlas.row(c, row);
+                for (int col = 0; col < GlyphAtlas.GLYPH_WIDTH; col++) {
+                    if ((rowMask & (1 << (GlyphAtlas.GLYPH_WIDTH - 1 - col))) != 0) {
+                        frameBuffer.setPixel(cursorX + col, text.y() + row, text.color());
+                    }
+                }
+            }
+            cursorX += GlyphAtlas.ADVANCE;
+        }
+    }
+
+    private static byte[] vram(Ram ram) {
+        byte[] vram = new byte[WIDTH * HEIGHT];
+        ram.readBlock(VRAM_START, vram);
+        return vram;
+    }
+
+    private record Text(int x, int y, String value, int color) {
+    }
+}